@@ -0,0 +1,375 @@
+package apps;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+
+import structures.Tree;
+import structures.TreeEdit;
+
+/**
+ * Benchmark harness for Tree. Generates pages of several sizes in memory, and measures
+ * building the tree from a Reader and from a Scanner. Every benchmark is warmed up before
+ * it is measured, and the throughput (mean and range over the iterations) is reported in
+ * MB of HTML per second, along with the mean time per node, which stays flat as the page
+ * grows when the build is linear.
+ *
+ * Two shapes of page are generated: a wide one, whose body has a p element with a line
+ * of text for every paragraph, all siblings, and a nested one, in which every div holds a
+ * line of text and the next div. Last, replaceTag, removeTag, addTag, boldRow and getHTML
+ * are measured on a wide page with PARAGRAPHS p tags, and on a nested page as deep, and
+ * so are three addTag edits in a row. replaceTag and addTag are measured again with a
+ * fork-join pool set on the tree: the common pool, which parallelizes them on as many
+ * threads as there are processors, or a pool of the given number of threads. Last, the
+ * SCRIPT and SPARSE_SCRIPT lists of edits are applied to each page one edit at a time,
+ * and all at once with Tree.apply. In SCRIPT, every edit changes every paragraph, so
+ * most of the time goes into the changes; in SPARSE_SCRIPT, few nodes are changed, and
+ * the time is that of walking the tree.
+ *
+ * Usage: java apps.DOMBenchmarks [-mb n] [-threads n]
+ *
+ */
+public class DOMBenchmarks {
+
+	/**
+	 * Code being measured.
+	 */
+	interface Task {
+		/**
+		 * Runs the code once.
+		 */
+		void run()
+		throws Exception;
+	}
+
+	/**
+	 * Edit being measured, on a freshly built tree.
+	 */
+	interface Edit {
+		/**
+		 * Applies the edit once.
+		 */
+		void apply(Tree tree)
+		throws Exception;
+	}
+
+	/**
+	 * Number of warm-up iterations.
+	 */
+	static final int WARMUP = 3;
+
+	/**
+	 * Number of measured iterations.
+	 */
+	static final int ITERATIONS = 5;
+
+	/**
+	 * Number of p tags in the page on which edits are measured.
+	 */
+	static final int PARAGRAPHS = 100000;
+
+	/**
+	 * Edits that change every paragraph, a removeTag last.
+	 */
+	static final List<TreeEdit> SCRIPT = Arrays.asList(
+		TreeEdit.addTag("ipsum", "em"),
+		TreeEdit.addTag("dolor", "b"),
+		TreeEdit.replaceTag("em", "i"),
+		TreeEdit.addTag("amet", "em"),
+		TreeEdit.boldRow(1),
+		TreeEdit.addTag("elit", "b"),
+		TreeEdit.replaceTag("b", "strong"),
+		TreeEdit.addTag("consectetur", "em"),
+		TreeEdit.addTag("sit", "b"),
+		TreeEdit.removeTag("em"));
+
+	/**
+	 * Edits that change few or no nodes.
+	 */
+	static final List<TreeEdit> SPARSE_SCRIPT = Arrays.asList(
+		TreeEdit.addTag("html", "em"),
+		TreeEdit.addTag("body", "b"),
+		TreeEdit.addTag("Lorems", "em"),
+		TreeEdit.replaceTag("em", "i"),
+		TreeEdit.addTag("ipsa", "b"),
+		TreeEdit.boldRow(1),
+		TreeEdit.addTag("dolore", "em"),
+		TreeEdit.addTag("amen", "b"),
+		TreeEdit.boldRow(2),
+		TreeEdit.addTag("elite", "em"));
+
+	/**
+	 * Text of every paragraph.
+	 */
+	static final String TEXT = "Lorem ipsum dolor sit amet, consectetur adipiscing elit.";
+
+	/**
+	 * Results of measured code are written here so that it is not optimized away.
+	 */
+	static volatile Object sink;
+
+	/**
+	 * Pool set on the trees for the parallel edits.
+	 */
+	static ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	/**
+	 * @param args Options
+	 */
+	public static void main(String[] args)
+	throws Exception {
+		int maxMB = Integer.parseInt(option(args, "-mb", "8"));
+		String threads = option(args, "-threads", null);
+		if (threads != null)
+			pool = new ForkJoinPool(Integer.parseInt(threads));
+		System.out.println(Runtime.getRuntime().availableProcessors() + " processors, pool parallelism "
+			+ pool.getParallelism());
+
+		for (int mb = 1; mb <= maxMB; mb *= 2)
+		{
+			final String wide = widePage(mb << 20);
+			final String nested = nestedPage(mb << 20);
+			System.out.println();
+			System.out.println(mb + " MB pages: wide " + nodes(wide) + " nodes, nested " + nodes(nested) + " nodes");
+			buildBenchmarks("wide", wide);
+			buildBenchmarks("nested", nested);
+		}
+
+		String page = widePage(PARAGRAPHS * ("<p>\n\n</p>\n".length() + TEXT.length()));
+		System.out.println();
+		System.out.println("edits on a page with " + PARAGRAPHS + " p tags, " + nodes(page) + " nodes");
+		editBenchmarks(page, "p");
+
+		page = nestedPage(PARAGRAPHS * ("<div>\n\n</div>\n".length() + TEXT.length()));
+		System.out.println();
+		System.out.println("edits on a page with " + PARAGRAPHS + " nested div tags, " + nodes(page) + " nodes");
+		editBenchmarks(page, "div");
+	}
+
+	static void editBenchmarks(String html, final String tag)
+	throws Exception
+	{
+		measure("replaceTag " + tag + " span", html, new Edit() {
+			public void apply(Tree tree) {
+				tree.replaceTag(tag, "span");
+			}
+		});
+		measure("replaceTag (parallel)", html, new Edit() {
+			public void apply(Tree tree) {
+				tree.setForkJoinPool(pool);
+				tree.replaceTag(tag, "span");
+			}
+		});
+		measure("removeTag " + tag, html, new Edit() {
+			public void apply(Tree tree) {
+				tree.removeTag(tag);
+			}
+		});
+		measure("addTag ipsum em", html, new Edit() {
+			public void apply(Tree tree) {
+				tree.addTag("ipsum", "em");
+			}
+		});
+		measure("addTag ipsum em (parallel)", html, new Edit() {
+			public void apply(Tree tree) {
+				tree.setForkJoinPool(pool);
+				tree.addTag("ipsum", "em");
+			}
+		});
+		measure("addTag ipsum, dolor, amet", html, new Edit() {
+			public void apply(Tree tree) {
+				addTags(tree);
+			}
+		});
+		measure("3 addTags (parallel)", html, new Edit() {
+			public void apply(Tree tree) {
+				tree.setForkJoinPool(pool);
+				addTags(tree);
+			}
+		});
+		measure("boldRow 1", html, new Edit() {
+			public void apply(Tree tree) {
+				tree.boldRow(1);
+			}
+		});
+		measure("getHTML", html, new Edit() {
+			public void apply(Tree tree) {
+				sink = tree.getHTML();
+			}
+		});
+		scriptBenchmarks("script", html, SCRIPT);
+		scriptBenchmarks("sparse script", html, SPARSE_SCRIPT);
+	}
+
+	/**
+	 * Adds three tags in a row, each of which changes every paragraph.
+	 */
+	static void addTags(Tree tree)
+	{
+		tree.addTag("ipsum", "em");
+		tree.addTag("dolor", "b");
+		tree.addTag("amet", "em");
+	}
+
+	static void scriptBenchmarks(String name, String html, final List<TreeEdit> script)
+	throws Exception
+	{
+		measure(name + ", one at a time", html, new Edit() {
+			public void apply(Tree tree) {
+				for (TreeEdit edit : script)
+					edit.applyTo(tree);
+			}
+		});
+		measure(name + ", fused", html, new Edit() {
+			public void apply(Tree tree) {
+				tree.apply(script);
+			}
+		});
+	}
+
+	static void buildBenchmarks(String shape, final String html)
+	throws Exception
+	{
+		measure("build " + shape + " (Reader)", html, new Task() {
+			public void run() {
+				Tree tree = new Tree(new StringReader(html));
+				tree.build();
+				sink = tree;
+			}
+		});
+		measure("build " + shape + " (Scanner)", html, new Task() {
+			public void run() {
+				Tree tree = new Tree(new Scanner(html));
+				tree.build();
+				sink = tree;
+			}
+		});
+	}
+
+	/**
+	 * Returns a page of about the given size whose body has a p element for every
+	 * paragraph.
+	 */
+	static String widePage(int chars)
+	{
+		StringBuilder sb = new StringBuilder(chars + 64);
+		sb.append("<html>\n<body>\n");
+		while (sb.length() < chars)
+			sb.append("<p>\n").append(TEXT).append("\n</p>\n");
+		sb.append("</body>\n</html>\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Returns a page of about the given size in which every div holds a line of text and
+	 * the next div.
+	 */
+	static String nestedPage(int chars)
+	{
+		int depth = chars / (TEXT.length() + "<div>\n\n</div>\n".length());
+		StringBuilder sb = new StringBuilder(chars + 64);
+		sb.append("<html>\n<body>\n");
+		for (int i = 0; i < depth; i++)
+			sb.append("<div>\n").append(TEXT).append('\n');
+		for (int i = 0; i < depth; i++)
+			sb.append("</div>\n");
+		sb.append("</body>\n</html>\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the number of nodes in a page, that is its number of lines that are not
+	 * closing tags.
+	 */
+	static int nodes(String html)
+	{
+		int nodes = 0;
+		int start = 0;
+		while (start < html.length())
+		{
+			int end = html.indexOf('\n', start);
+			if (end < 0)
+				end = html.length();
+			if (!html.startsWith("</", start))
+				nodes++;
+			start = end + 1;
+		}
+		return nodes;
+	}
+
+	/**
+	 * Runs a task WARMUP times, then ITERATIONS times while measuring, and prints the
+	 * throughput in MB of the given page per second (mean and range over the iterations),
+	 * and the mean time per node of the page.
+	 */
+	static void measure(String name, String html, Task task)
+	throws Exception
+	{
+		for (int i = 0; i < WARMUP; i++)
+			task.run();
+
+		double mb = html.length() / (double) (1 << 20);
+		double[] rates = new double[ITERATIONS];
+		long total = 0;
+		for (int i = 0; i < ITERATIONS; i++)
+		{
+			long start = System.nanoTime();
+			task.run();
+			long nanos = System.nanoTime() - start;
+			total += nanos;
+			rates[i] = mb * 1e9 / nanos;
+		}
+
+		Arrays.sort(rates);
+		double mean = 0;
+		for (double r : rates)
+			mean += r / ITERATIONS;
+		System.out.printf("%-28s %8.1f MB/s  [%.1f .. %.1f]  %8.1f ns/node%n", name, mean, rates[0], rates[ITERATIONS - 1],
+			(double) total / ITERATIONS / nodes(html));
+	}
+
+	/**
+	 * Applies an edit to a tree freshly built from the given page, WARMUP times, then
+	 * ITERATIONS times while measuring, and prints the time per edit (mean and range over
+	 * the iterations). Building the tree is not measured.
+	 */
+	static void measure(String name, String html, Edit edit)
+	throws Exception
+	{
+		for (int i = 0; i < WARMUP; i++)
+		{
+			Tree tree = new Tree(new StringReader(html));
+			tree.build();
+			edit.apply(tree);
+		}
+
+		double[] millis = new double[ITERATIONS];
+		for (int i = 0; i < ITERATIONS; i++)
+		{
+			Tree tree = new Tree(new StringReader(html));
+			tree.build();
+			long start = System.nanoTime();
+			edit.apply(tree);
+			millis[i] = (System.nanoTime() - start) / 1e6;
+			sink = tree;
+		}
+
+		Arrays.sort(millis);
+		double mean = 0;
+		for (double m : millis)
+			mean += m / ITERATIONS;
+		System.out.printf("%-28s %8.2f ms  [%.2f .. %.2f]%n", name, mean, millis[0], millis[ITERATIONS - 1]);
+	}
+
+	static String option(String[] args, String name, String value)
+	{
+		for (int i = 0; i < args.length - 1; i++)
+		{
+			if (args[i].equals(name))
+				return args[i + 1];
+		}
+		return value;
+	}
+}
@@ -0,0 +1,287 @@
+package structures;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Index of the nodes of a tree by tag. Every node is in the index under its tag field, so
+ * text nodes are indexed by their text. The nodes with a given tag are linked in a list
+ * through their prevWithTag and nextWithTag fields, in the order in which they were added,
+ * so a node can be added or removed in constant time without hashing the node itself,
+ * and all the nodes with a tag can be listed without walking the tree.
+ *
+ * The index is not thread-safe. Threads that change nodes at the same time record what they
+ * changed in their own Changes, which are applied to the index once they are done.
+ *
+ */
+class TagIndex {
+
+	/**
+	 * List of the nodes with a tag.
+	 */
+	private static class TagList {
+		TagNode first, last;
+		int size;
+	}
+
+	/**
+	 * Changes to the tags of nodes, and new nodes, to be applied to an index in the order
+	 * in which they were made. A new node may be retagged after it was added.
+	 */
+	static class Changes {
+		private ArrayList<TagNode> nodes = new ArrayList<TagNode>();
+		private ArrayList<String> oldTags = new ArrayList<String>();
+		private ArrayList<String> newTags = new ArrayList<String>();
+
+		/**
+		 * Records a new node.
+		 */
+		void added(TagNode node) {
+			nodes.add(node);
+			oldTags.add(null);
+			newTags.add(node.tag);
+		}
+
+		/**
+		 * Changes the tag of a node, and records the change.
+		 */
+		void retag(TagNode node, String tag) {
+			nodes.add(node);
+			oldTags.add(node.tag);
+			newTags.add(tag);
+			node.tag = tag;
+		}
+	}
+
+	/**
+	 * Renaming tasks work on at least this many nodes each.
+	 */
+	static final int RENAME_THRESHOLD = 1 << 13;
+
+	/**
+	 * Nodes with each tag.
+	 */
+	private HashMap<String,TagList> nodes;
+
+	/**
+	 * Initializes an empty index.
+	 */
+	public TagIndex() {
+		nodes = new HashMap<String,TagList>();
+	}
+
+	/**
+	 * Adds a node under its tag.
+	 *
+	 * @param node Node to add, which must not be in the index
+	 */
+	public void add(TagNode node)
+	{
+		add(node, node.tag);
+	}
+
+	/**
+	 * Adds a node under a tag that it has, or had.
+	 */
+	private void add(TagNode node, String tag)
+	{
+		TagList list = nodes.get(tag);
+		if (list == null)
+		{
+			list = new TagList();
+			nodes.put(tag, list);
+		}
+		node.prevWithTag = list.last;
+		node.nextWithTag = null;
+		if (list.last == null)
+			list.first = node;
+		else
+			list.last.nextWithTag = node;
+		list.last = node;
+		list.size++;
+	}
+
+	/**
+	 * Removes a node from under its tag.
+	 *
+	 * @param node Node to remove, which must be in the index
+	 */
+	public void remove(TagNode node)
+	{
+		remove(node, node.tag);
+	}
+
+	/**
+	 * Removes a node from under a tag that it had.
+	 */
+	private void remove(TagNode node, String tag)
+	{
+		TagList list = nodes.get(tag);
+		if (list == null)
+			return;
+		if (node.prevWithTag == null)
+			list.first = node.nextWithTag;
+		else
+			node.prevWithTag.nextWithTag = node.nextWithTag;
+		if (node.nextWithTag == null)
+			list.last = node.prevWithTag;
+		else
+			node.nextWithTag.prevWithTag = node.prevWithTag;
+		node.prevWithTag = null;
+		node.nextWithTag = null;
+		if (--list.size == 0)
+			nodes.remove(tag);
+	}
+
+	/**
+	 * Changes the tag of a node, and moves it to the new tag.
+	 *
+	 * @param node Node to change, which must be in the index
+	 * @param tag New tag
+	 */
+	public void retag(TagNode node, String tag)
+	{
+		if (node.tag.equals(tag))
+			return;
+		remove(node);
+		node.tag = tag;
+		add(node);
+	}
+
+	/**
+	 * Changes the tag of all the nodes with a tag, and moves them all to the new tag.
+	 *
+	 * @param oldTag Old tag
+	 * @param newTag New tag
+	 */
+	public void rename(String oldTag, String newTag)
+	{
+		rename(oldTag, newTag, null);
+	}
+
+	/**
+	 * Changes the tag of all the nodes with a tag, and moves them all to the new tag. The
+	 * tag fields are changed in parallel, in slices of at least RENAME_THRESHOLD nodes.
+	 *
+	 * @param oldTag Old tag
+	 * @param newTag New tag
+	 * @param pool Pool in which to change the tag fields, null to change them on this thread
+	 */
+	public void rename(String oldTag, String newTag, ForkJoinPool pool)
+	{
+		if (oldTag.equals(newTag))
+			return;
+		TagList list = nodes.remove(oldTag);
+		if (list == null)
+			return;
+		if ((pool == null) || (list.size < 2 * RENAME_THRESHOLD))
+		{
+			for (TagNode node = list.first; node != null; node = node.nextWithTag)
+				node.tag = newTag;
+		}
+		else
+		{
+			TagNode[] all = new TagNode[list.size];
+			int i = 0;
+			for (TagNode node = list.first; node != null; node = node.nextWithTag)
+				all[i++] = node;
+			pool.invoke(new Rename(all, 0, all.length, newTag));
+		}
+
+		TagList existing = nodes.get(newTag);
+		if (existing == null)
+			nodes.put(newTag, list);
+		else
+		{
+			existing.last.nextWithTag = list.first;
+			list.first.prevWithTag = existing.last;
+			existing.last = list.last;
+			existing.size += list.size;
+		}
+	}
+
+	/**
+	 * Applies changes recorded while changing nodes.
+	 *
+	 * @param changes Changes
+	 */
+	public void apply(Changes changes)
+	{
+		for (int i = 0; i < changes.nodes.size(); i++)
+		{
+			TagNode node = changes.nodes.get(i);
+			String oldTag = changes.oldTags.get(i);
+			if (oldTag != null)
+				remove(node, oldTag);
+			add(node, changes.newTags.get(i));
+		}
+	}
+
+	/**
+	 * Sets the tag of a slice of nodes, splitting the slice in two as long as it is more
+	 * than RENAME_THRESHOLD nodes.
+	 */
+	private static class Rename extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private TagNode[] nodes;
+		private int from, to;
+		private String tag;
+
+		Rename(TagNode[] nodes, int from, int to, String tag) {
+			this.nodes = nodes;
+			this.from = from;
+			this.to = to;
+			this.tag = tag;
+		}
+
+		protected void compute() {
+			if (to - from <= RENAME_THRESHOLD)
+			{
+				for (int i = from; i < to; i++)
+					nodes[i].tag = tag;
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new Rename(nodes, from, mid, tag), new Rename(nodes, mid, to, tag));
+		}
+	}
+
+	/**
+	 * Returns the nodes with a tag.
+	 *
+	 * @param tag Tag
+	 * @return New list of the nodes with the tag, in the order in which they were added
+	 *         (empty if none)
+	 */
+	public ArrayList<TagNode> get(String tag)
+	{
+		TagList list = nodes.get(tag);
+		ArrayList<TagNode> result = new ArrayList<TagNode>((list == null) ? 0 : list.size);
+		if (list != null)
+		{
+			for (TagNode node = list.first; node != null; node = node.nextWithTag)
+				result.add(node);
+		}
+		return result;
+	}
+
+	/**
+	 * Tells if any node has a tag.
+	 *
+	 * @param tag Tag
+	 * @return True if a node has the tag, false if not
+	 */
+	public boolean contains(String tag)
+	{
+		return nodes.containsKey(tag);
+	}
+
+	/**
+	 * Removes all nodes.
+	 */
+	public void clear()
+	{
+		nodes.clear();
+	}
+}
@@ -24,6 +24,28 @@ public class TagNode {
 	 */
 	TagNode sibling;
 	
+	/**
+	 * Parent of this node, null for the root. Kept up to date by Tree.
+	 */
+	TagNode parent;
+	
+	/**
+	 * Previous sibling of this node, null for a first child. Kept up to date by Tree.
+	 */
+	TagNode prev;
+	
+	/**
+	 * Previous and next node with the same tag, in the list kept by TagIndex.
+	 */
+	TagNode prevWithTag, nextWithTag;
+	
+	/**
+	 * Number of nodes in the subtree of this node, counting itself, as of the last time
+	 * Tree built it or walked it with a parallel addTag. Kept up to date by Tree for the
+	 * nodes it links, but not for their ancestors.
+	 */
+	int size;
+	
 	/**
 	 * Initializes this tag node with tag/txt, first child, and sibling
 	 * 
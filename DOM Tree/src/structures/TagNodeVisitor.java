@@ -0,0 +1,41 @@
+package structures;
+
+/**
+ * Callbacks for a walk over TagNodes with TreeWalker. Every node is entered before its
+ * children are walked, and left after them; the value returned when entering a node can
+ * prune the walk.
+ *
+ */
+interface TagNodeVisitor {
+
+	/**
+	 * Return value of enter to walk the children of the node, then its next sibling.
+	 */
+	int CONTINUE = 0;
+
+	/**
+	 * Flag returned by enter to not walk the children of the node.
+	 */
+	int SKIP_CHILDREN = 1;
+
+	/**
+	 * Flag returned by enter to not walk the next sibling of the node (as it is when the
+	 * node is left) and its children, but go on with the sibling after it.
+	 */
+	int SKIP_NEXT_SIBLING = 2;
+
+	/**
+	 * Called on a node before its children are walked.
+	 *
+	 * @param node Node
+	 * @return CONTINUE, or any of SKIP_CHILDREN and SKIP_NEXT_SIBLING
+	 */
+	int enter(TagNode node);
+
+	/**
+	 * Called on a node after its children are walked, or right after enter if they are not.
+	 *
+	 * @param node Node
+	 */
+	void leave(TagNode node);
+}
@@ -0,0 +1,212 @@
+package structures;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Scanner;
+
+/**
+ * Reads the lines of an HTML file, one tag or one line of text per line, through a char
+ * buffer. Each line is classified in place in the buffer, and only the tag name or text
+ * that is kept in a TagNode is copied out into a String, so reading a line allocates
+ * nothing else.
+ *
+ */
+class TagReader {
+
+	/**
+	 * Size of the chunks in which the input is read.
+	 */
+	static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Kinds of lines.
+	 */
+	static final int TEXT = 0;
+	static final int OPEN = 1;
+	static final int CLOSE = 2;
+
+	/**
+	 * Input HTML file.
+	 */
+	private Reader in;
+
+	/**
+	 * Current chunk of input.
+	 */
+	private char[] buf;
+
+	/**
+	 * Position of the next unread character in buf.
+	 */
+	private int pos;
+
+	/**
+	 * End of the valid characters in buf.
+	 */
+	private int limit;
+
+	/**
+	 * True once the input is exhausted.
+	 */
+	private boolean eof;
+
+	/**
+	 * Kind of the current line, TEXT, OPEN or CLOSE.
+	 */
+	int kind;
+
+	/**
+	 * Tag name (without the brackets) or text of the current line, null for a CLOSE line.
+	 */
+	String name;
+
+	/**
+	 * Initializes this reader.
+	 *
+	 * @param in Input HTML file, read in chunks of BUFFER_SIZE characters
+	 */
+	public TagReader(Reader in) {
+		this.in = in;
+		buf = new char[BUFFER_SIZE];
+	}
+
+	/**
+	 * Moves to the next line of input. Lines end with "\n", "\r\n" or "\r". Empty lines
+	 * are skipped, so the "\n" of a "\r\n" simply ends an empty line.
+	 *
+	 * @return True if there was a next line, false at end of input
+	 * @throws IOException If the input cannot be read
+	 */
+	public boolean next()
+	throws IOException
+	{
+		while (true)
+		{
+			// find the end of the line, reading more input as needed
+			int scan = pos;
+			while (true)
+			{
+				while ((scan < limit) && (buf[scan] != '\n') && (buf[scan] != '\r'))
+					scan++;
+				if ((scan < limit) || eof)
+					break;
+				scan -= pos;
+				fill();
+				scan += pos;
+			}
+
+			int start = pos;
+			int end = scan;
+			pos = (scan < limit) ? scan + 1 : limit;
+
+			if (start == end)
+			{
+				if (eof && (pos == limit))
+					return false;
+				continue;
+			}
+
+			// a line that starts with '<' is a tag, and its last character is the '>'
+			if ((buf[start] == '<') && (end - start >= 2))
+			{
+				if (buf[start + 1] == '/')
+				{
+					kind = CLOSE;
+					name = null;
+				}
+				else
+				{
+					kind = OPEN;
+					name = new String(buf, start + 1, end - start - 2);
+				}
+			}
+			else
+			{
+				kind = TEXT;
+				name = new String(buf, start, end - start);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Moves the unread characters to the start of the buffer, growing it if they fill it,
+	 * and reads more input after them.
+	 */
+	private void fill()
+	throws IOException
+	{
+		int unread = limit - pos;
+		if (unread == buf.length)
+		{
+			char[] grown = new char[2 * buf.length];
+			System.arraycopy(buf, pos, grown, 0, unread);
+			buf = grown;
+		}
+		else
+			System.arraycopy(buf, pos, buf, 0, unread);
+		pos = 0;
+		limit = unread;
+
+		int n = in.read(buf, limit, buf.length - limit);
+		if (n < 0)
+			eof = true;
+		else
+			limit += n;
+	}
+
+	/**
+	 * Closes the input.
+	 *
+	 * @throws IOException If the input cannot be closed
+	 */
+	public void close()
+	throws IOException
+	{
+		in.close();
+	}
+
+	/**
+	 * Reader over the lines of a Scanner, for trees built from a Scanner.
+	 */
+	static class ScannerReader extends Reader {
+		private Scanner sc;
+		private String line;
+		private int pos;
+
+		ScannerReader(Scanner sc) {
+			this.sc = sc;
+		}
+
+		public int read(char[] cbuf, int off, int len) {
+			if (len == 0)
+				return 0;
+			int n = 0;
+			while (n < len)
+			{
+				if (line == null)
+				{
+					if (!sc.hasNextLine())
+						break;
+					line = sc.nextLine();
+					pos = 0;
+				}
+				if (pos == line.length())
+				{
+					cbuf[off + n++] = '\n';
+					line = null;
+					continue;
+				}
+				int m = Math.min(len - n, line.length() - pos);
+				line.getChars(pos, pos + m, cbuf, off + n);
+				pos += m;
+				n += m;
+			}
+			return (n == 0) ? -1 : n;
+		}
+
+		public void close() {
+			sc.close();
+		}
+	}
+}
@@ -1,10 +1,28 @@
 package structures;
 
+import java.io.IOException;
+import java.io.Reader;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * This class implements an HTML DOM Tree. Each node of the tree is a TagNode, with fields for
- * tag/text, first child and sibling.
+ * tag/text, first child and sibling, as well as parent and previous sibling. All the nodes
+ * are also kept in an index by tag, so replacing, removing and looking for a tag only ever
+ * touches the nodes with that tag (and the parents and children of the removed ones).
+ * Operations that have to look at every node are run by a TreeWalker, which keeps its
+ * own stack, so trees of any depth or width can be handled.
+ * 
+ * With a fork-join pool set, addTag splits the tree into subtrees, and runs of siblings,
+ * of about SPLIT_THRESHOLD nodes, which are tagged in parallel, and replaceTag renames
+ * the nodes with the old tag in parallel slices. The sizes of the subtrees used for the
+ * split are counted when the tree is built, and counted again by every parallel addTag
+ * as it walks the tree, so they never take a walk of their own. Other edits only set the
+ * sizes of the nodes they link, which leaves the sizes of their ancestors a little off
+ * until the next parallel addTag: that only makes the split less even.
+ * 
+ * A list of edits is applied with apply, which runs consecutive addTag and boldRow edits
+ * (and the replaceTag edits between them) together in a single pass over the tree.
  * 
  */
 public class Tree {
@@ -15,9 +33,38 @@ public class Tree {
 	TagNode root=null;
 	
 	/**
-	 * Scanner used to read input HTML file when building the tree
+	 * Input HTML file, read when building the tree
+	 */
+	Reader in;
+	
+	/**
+	 * Index of all nodes by tag (or text, for text nodes)
+	 */
+	TagIndex index = new TagIndex();
+	
+	/**
+	 * Subtrees and runs of siblings larger than this are tagged by separate tasks in
+	 * a parallel addTag
+	 */
+	static final int SPLIT_THRESHOLD = 1 << 12;
+	
+	/**
+	 * Pool for parallel operations, null to run them all on the calling thread
 	 */
-	Scanner sc;
+	ForkJoinPool pool;
+	
+	/**
+	 * An element that is still open while building the tree, with its last child so far,
+	 * after which the next child is linked.
+	 */
+	private static class OpenElement {
+		TagNode node;
+		TagNode lastChild;
+		
+		OpenElement(TagNode node) {
+			this.node = node;
+		}
+	}
 	
 	/**
 	 * Initializes this tree object with scanner for input HTML file
@@ -25,158 +72,289 @@ public class Tree {
 	 * @param sc Scanner for input HTML file
 	 */
 	public Tree(Scanner sc) {
-		this.sc = sc;
+		this(new TagReader.ScannerReader(sc));
+	}
+	
+	/**
+	 * Initializes this tree object with a reader for input HTML file, which is read
+	 * through a buffer when building the tree
+	 * 
+	 * @param in Reader for input HTML file
+	 */
+	public Tree(Reader in) {
+		this.in = in;
 		root = null;
 	}
 	
 	///////////////////////////////////////////////////////////////////////////////
 	///// HELPER METHODS \\\\\
-	private String noBrackets(String brackets)
+	private boolean hasTag(String tag) 
 	{
-		return brackets.substring(1, brackets.length()-1);
+		return index.contains(tag);
 	}
-	
-	private boolean hasTag(String tag, TagNode localRoot) 
-	{
-		if (localRoot == null)
-			return false;
-
-		else if (localRoot.tag.equals(tag))
-			return true;
 
-		boolean hasTagInTree = (hasTag(tag, localRoot.firstChild) || hasTag(tag, localRoot.sibling));
+	/**
+	 * Links a new node into the tree right after a node, and records it for the index.
+	 */
+	private TagNode insertAfter(TagNode node, String tag, TagIndex.Changes changes)
+	{
+		TagNode newNode = new TagNode(tag, null, node.sibling);
+		newNode.parent = node.parent;
+		newNode.prev = node;
+		if (node.sibling != null)
+			node.sibling.prev = newNode;
+		node.sibling = newNode;
+		newNode.size = 1;
+		changes.added(newNode);
+		return newNode;
+	}
 
-		return hasTagInTree;
+	/**
+	 * Links a new node into the tree as the only child of a node, with the former children
+	 * of the node as its children, and records it for the index.
+	 */
+	private TagNode insertChild(TagNode node, String tag, TagIndex.Changes changes)
+	{
+		TagNode newNode = new TagNode(tag, node.firstChild, null);
+		newNode.parent = node;
+		for (TagNode child = node.firstChild; child != null; child = child.sibling)
+			child.parent = newNode;
+		node.firstChild = newNode;
+		newNode.size = node.size;
+		node.size = newNode.size + 1;
+		changes.added(newNode);
+		return newNode;
 	}
 
+	/**
+	 * Returns a set of bits with one bit for every letter (of either case) or digit in a
+	 * string, and a few more for other ASCII characters, or all bits if any character is
+	 * not ASCII. A string can only contain another, ignoring case, if it has all of its
+	 * bits.
+	 */
+	static long letters(String s)
+	{
+		long letters = 0;
+		for (int i = 0; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if ((c >= 'a') && (c <= 'z'))
+				letters |= 1L << (c - 'a');
+			else if ((c >= 'A') && (c <= 'Z'))
+				letters |= 1L << (c - 'A');
+			else if ((c >= '0') && (c <= '9'))
+				letters |= 1L << (26 + c - '0');
+			else if (c < 0x80)
+				letters |= 1L << (36 + (c & 0xf));
+			else
+				return -1L;
+		}
+		return letters;
+	}
+	
+	private static boolean isAscii(String s)
+	{
+		for (int i = 0; i < s.length(); i++)
+		{
+			if (s.charAt(i) >= 0x80)
+				return false;
+		}
+		return true;
+	}
+	
 	private boolean checkPunc(char c)
 	{
 		return ((c == '!') || (c == '?') || (c == '.') || (c == ',') || (c == ';')|| (c == ':'));
 	}
 	
-	///// REPLACE \\\\\
-	private void replace(String oldTag, String newTag, TagNode localRoot)
+	///// BOLD \\\\\
+	private class Bold implements TagNodeVisitor
 	{
-		if (localRoot == null)
-			return;
+		private int row;
+		private TagIndex.Changes changes;
 		
-		else if (localRoot.tag.equals(oldTag))
-			localRoot.tag = newTag;
-			
-		replace(oldTag, newTag, localRoot.firstChild);
-		replace(oldTag, newTag, localRoot.sibling);
+		Bold(int row, TagIndex.Changes changes)
+		{
+			this.row = row;
+			this.changes = changes;
+		}
+		
+		public int enter(TagNode localRoot)
+		{
+			if (isTable(localRoot))
+				boldColumns(tableRow(localRoot.firstChild, row).firstChild, changes);
+			return CONTINUE;
+		}
+		
+		public void leave(TagNode localRoot)
+		{
+		}
 	}
-
-	///// BOLD \\\\\
-	private void bold(int row, TagNode localRoot)
+	
+	private static boolean isTable(TagNode node)
 	{
-		if (localRoot == null)
-			return;
-
-		if (localRoot.tag.equals("table"))
+		return node.tag.equals("table") && (node.firstChild != null);
+	}
+	
+	/**
+	 * Returns a row of a table, given its first row.
+	 */
+	private static TagNode tableRow(TagNode tableRow, int row)
+	{
+		int counter = 0;
+		while (counter < row-1)
 		{
-			TagNode tableRow = localRoot.firstChild;
-			int counter = 0;
-			while (counter < row-1)
-			{
-				if (tableRow.sibling != null)
-					tableRow = tableRow.sibling;
-				else throw new IllegalArgumentException();
-				counter++;
-			}
-			TagNode col = tableRow.firstChild;
-			while (col != null)
-			{
-				TagNode b = new TagNode("b", col.firstChild, null);
-				col.firstChild = b;
-				col = col.sibling;
-			}
+			if (tableRow.sibling != null)
+				tableRow = tableRow.sibling;
+			else throw new IllegalArgumentException();
+			counter++;
+		}
+		return tableRow;
+	}
+	
+	/**
+	 * Puts a b tag under each column of a row, given its first column.
+	 */
+	private void boldColumns(TagNode col, TagIndex.Changes changes)
+	{
+		while (col != null)
+		{
+			insertChild(col, "b", changes);
+			col = col.sibling;
 		}
-		bold(row, localRoot.firstChild);
-		bold(row, localRoot.sibling);
 	}
 
 	///// REMOVE \\\\\
-	private void remove(String tag, TagNode parent, TagNode localRoot) 
+	private void remove(TagNode node) 
 	{
-		if ((localRoot == null) || (parent == null))
-			return;
-		
-		else if (localRoot.tag.equals(tag))
+		if (node.tag.equals("ol") || node.tag.equals("ul"))
 		{
-			if (tag.equals("ol") || tag.equals("ul"))
-			{
-				TagNode childNode = localRoot.firstChild;
-				while (childNode != null)
-				{
-					if (childNode.tag.equals("li"))
-						childNode.tag = "p";
-					
-					childNode = childNode.sibling;
-				}
-			}
-
-			if (parent.firstChild == localRoot) 
+			TagNode childNode = node.firstChild;
+			while (childNode != null)
 			{
-				parent.firstChild = localRoot.firstChild;
-				TagNode childNode = localRoot.firstChild;
-				
-				while (childNode.sibling != null)
-					childNode = childNode.sibling;
-				
-				childNode.sibling = localRoot.sibling;
-			}
-
-			else if (parent.sibling == localRoot) 
-			{
-				TagNode childNode = localRoot.firstChild;
-				
-				while (childNode.sibling != null)
-					childNode = childNode.sibling;
+				if (childNode.tag.equals("li"))
+					index.retag(childNode, "p");
 				
-				childNode.sibling = localRoot.sibling;
-				parent.sibling = localRoot.firstChild;
+				childNode = childNode.sibling;
 			}
-
-			return;
 		}
 
-		parent = localRoot;
-		remove(tag, parent, localRoot.firstChild);
-		remove(tag, parent, localRoot.sibling);
+		// the children take the place of the node among its siblings
+		TagNode first = node.firstChild;
+		TagNode last = first;
+		for (TagNode childNode = first; childNode != null; childNode = childNode.sibling)
+		{
+			childNode.parent = node.parent;
+			last = childNode;
+		}
+		
+		first.prev = node.prev;
+		if (node.prev == null)
+			node.parent.firstChild = first;
+		else
+			node.prev.sibling = first;
+		
+		last.sibling = node.sibling;
+		if (node.sibling != null)
+			node.sibling.prev = last;
+		
+		index.remove(node);
+		node.firstChild = null;
+		node.sibling = null;
+		node.parent = null;
+		node.prev = null;
 	}
 	
 	///// ADD \\\\\
-	private void add(String word, String tag, TagNode localRoot) 
+	private class Add implements TagNodeVisitor
 	{
-		if (localRoot == null)
-			return;
+		private String word;
+		private String tag;
+		private TagIndex.Changes changes;
+		private String lowerWord;
+		
+		/**
+		 * True if the word can be looked for in plain ASCII text without lowercasing it, that
+		 * is if the lowercase word is ASCII, and "I" lowercases to "i" in the default locale.
+		 */
+		private boolean ascii;
+		
+		/**
+		 * Letters of the lowercase word, 0 if it is not ASCII.
+		 */
+		private long wordLetters;
+		
+		Add(String word, String tag, TagIndex.Changes changes)
+		{
+			this.word = word;
+			this.tag = tag;
+			this.changes = changes;
+			lowerWord = word.toLowerCase();
+			ascii = isAscii(lowerWord) && "I".toLowerCase().equals("i");
+			if (isAscii(lowerWord))
+				wordLetters = letters(lowerWord);
+		}
+		
+		/**
+		 * Tells if a tag with the given letters may contain the word.
+		 */
+		boolean mayMatch(long tagLetters)
+		{
+			return (wordLetters & ~tagLetters) == 0;
+		}
 		
-		String lowerTag = localRoot.tag.toLowerCase();
-		String lowerWord = word.toLowerCase();
+		/**
+		 * Tells if entering a node may change the tree or skip its next sibling, that is if
+		 * its lowercase tag contains the lowercase word. Plain ASCII tags are searched in
+		 * place, since lowercasing them would allocate a string for every node.
+		 */
+		boolean matches(TagNode localRoot)
+		{
+			String text = localRoot.tag;
+			if (!ascii || !isAscii(text))
+				return text.toLowerCase().contains(lowerWord);
+			
+			int n = lowerWord.length();
+			if (n == 0)
+				return true;
+			char first = lowerWord.charAt(0);
+			for (int i = 0; i + n <= text.length(); i++)
+			{
+				char c = text.charAt(i);
+				if ((c >= 'A') && (c <= 'Z'))
+					c += 'a' - 'A';
+				if ((c == first) && text.regionMatches(true, i + 1, lowerWord, 1, n - 1))
+					return true;
+			}
+			return false;
+		}
 		
-		if (lowerTag.contains(lowerWord))
+		public int enter(TagNode localRoot) 
 		{
+			if (!matches(localRoot))
+				return CONTINUE;
+			
+			String lowerTag = localRoot.tag.toLowerCase();
+			
 			if (lowerTag.equals(word))
 			{
 				String oldWord = localRoot.tag;
-				localRoot.tag = tag;
-				localRoot.firstChild = new TagNode(oldWord, localRoot.firstChild, null);
+				changes.retag(localRoot, tag);
+				insertChild(localRoot, oldWord, changes);
 			}
 			
 			else
 			{
-				TagNode sibling = localRoot.sibling;
-				int index = lowerTag.indexOf(lowerWord);
+				int at = lowerTag.indexOf(lowerWord);
 				
-				String[] split = {localRoot.tag.substring(0, index), localRoot.tag.substring(index, index + word.length()), localRoot.tag.substring(index + word.length(), lowerTag.length()), ""};
+				String[] split = {localRoot.tag.substring(0, at), localRoot.tag.substring(at, at + word.length()), localRoot.tag.substring(at + word.length(), lowerTag.length()), ""};
 				
 				if ((split[2].length() > 1) && (checkPunc(split[2].charAt(0))) && (!checkPunc(split[2].charAt(1))))
 				{
 					split[3] = "" + split[2].charAt(0);
 					split[2] = split[2].substring(1);
 				}
-
+				
 				if ((split[2].length() == 0) || (split[2].length() >= 1 && (split[2].charAt(0) == ' ' || checkPunc(split[2].charAt(0)))))
 				{
 					if ((split[2].length() == 1) && (checkPunc(split[2].charAt(0))))
@@ -185,85 +363,654 @@ public class Tree {
 						split[2] = "";
 					}
 					
-					localRoot.tag = split[0];
-					TagNode newChild = new TagNode(split[1] + split[3], null, null);
-					localRoot.sibling = new TagNode(tag, newChild, null);
-
+					changes.retag(localRoot, split[0]);
+					TagNode tagged = insertAfter(localRoot, tag, changes);
+					insertChild(tagged, split[1] + split[3], changes);
+					
 					if (split[2].length() > 0) 
+						insertAfter(tagged, split[2], changes);
+				}
+			}
+			
+			// go on after the sibling, which is the new tag if there is one
+			return SKIP_CHILDREN | SKIP_NEXT_SIBLING;
+		}
+		
+		public void leave(TagNode localRoot)
+		{
+		}
+	}
+	
+	/**
+	 * Add that counts the nodes under every node it leaves again, from the sizes of its
+	 * children, which have all been left (or skipped) by then.
+	 */
+	private class CountingAdd extends Add
+	{
+		CountingAdd(String word, String tag, TagIndex.Changes changes)
+		{
+			super(word, tag, changes);
+		}
+		
+		public void leave(TagNode localRoot)
+		{
+			int size = 1;
+			for (TagNode child = localRoot.firstChild; child != null; child = child.sibling)
+				size += child.size;
+			localRoot.size = size;
+		}
+	}
+	
+	///// PARALLEL ADD \\\\\
+	/**
+	 * Tags some runs of siblings and their subtrees. The nodes of each run are entered in
+	 * order, as by TreeWalker, and so are the subtrees of the nodes, whose sizes are counted
+	 * again as they are left, except for the large nodes: the nodes with more than
+	 * SPLIT_THRESHOLD nodes that are entered and do not match the word. The children of a
+	 * large node are cut into runs by the task that enters it, and every SPLIT_THRESHOLD
+	 * nodes or so of them are forked as a new task as soon as they are cut, so the tree is
+	 * cut in parallel as well. The runs left over, with fewer nodes in all, are taken by
+	 * the task itself once it is done with its own.
+	 * 
+	 * A run is always cut right after a node that does not match the word, so the node at
+	 * the cut is entered by the task that gets it, no node is inserted before it by the
+	 * task that has the run before it, and no two tasks change the same nodes or links.
+	 * Tasks never join each other: addTag joins them all, one after the other, so neither
+	 * the depth nor the width of the tree adds up to nested joins.
+	 */
+	private class AddTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private String word;
+		private String tag;
+		
+		private ArrayList<TagNode> firsts = new ArrayList<TagNode>();
+		private ArrayList<TagNode> ends = new ArrayList<TagNode>();
+		
+		/**
+		 * Number of nodes in each run once it is walked, not counting the large nodes
+		 */
+		private ArrayList<Integer> sizes = new ArrayList<Integer>();
+		
+		/**
+		 * Large nodes of the runs, in the order they are entered
+		 */
+		private ArrayList<TagNode> large = new ArrayList<TagNode>();
+		
+		/**
+		 * Tasks forked by this one, for the children of its large nodes
+		 */
+		private ArrayList<AddTask> forked = new ArrayList<AddTask>();
+		
+		/**
+		 * Task to which runs of children are being cut, and its number of nodes so far
+		 */
+		private AddTask filling;
+		private int fillingSize;
+		
+		private TagIndex.Changes changes = new TagIndex.Changes();
+		private CountingAdd add;
+		
+		AddTask(String word, String tag)
+		{
+			this.word = word;
+			this.tag = tag;
+			add = new CountingAdd(word, tag, changes);
+		}
+		
+		/**
+		 * Adds the run of siblings from first up to (not including) end to this task.
+		 */
+		void run(TagNode first, TagNode end)
+		{
+			firsts.add(first);
+			ends.add(end);
+		}
+		
+		protected void compute()
+		{
+			for (int i = 0; i < firsts.size(); i++)
+			{
+				int size = 0;
+				TagNode end = ends.get(i);
+				TagNode node = firsts.get(i);
+				while (node != end)
+				{
+					int f = add.enter(node);
+					TagNode next = TreeWalker.next(node, f);
+					boolean walk = ((f & TagNodeVisitor.SKIP_CHILDREN) == 0) && (node.firstChild != null);
+					if (walk && (node.size > SPLIT_THRESHOLD))
 					{
-						if (sibling != null)
-							localRoot.sibling.sibling = new TagNode(split[2], null, sibling);
-						else
-							localRoot.sibling.sibling = new TagNode(split[2], null, null);
+						cut(node);
+						node.size = 1;
+						large.add(node);
 					}
-					
-					else if (sibling != null)
+					else
 					{
-						localRoot.sibling.sibling = sibling;
+						if (walk)
+							TreeWalker.walk(node.firstChild, add);
+						add.leave(node);
+						size += node.size;
 					}
-					
+					for (TagNode skipped = node.sibling; skipped != next; skipped = skipped.sibling)
+						size += skipped.size;
+					node = next;
+				}
+				sizes.add(size);
+				
+				if ((i == firsts.size() - 1) && (filling != null))
+				{
+					firsts.addAll(filling.firsts);
+					ends.addAll(filling.ends);
+					filling.firsts.clear();
+					filling.ends.clear();
+					fillingSize = 0;
 				}
 			}
-			
-			if (localRoot.sibling != null)
-				add(word, tag, localRoot.sibling.sibling);
 		}
 		
-		else
+		/**
+		 * Cuts the children of a large node into runs. A child with more than
+		 * SPLIT_THRESHOLD nodes counts as one node, since it is either skipped, or entered
+		 * and matched, or a large node itself.
+		 */
+		private void cut(TagNode node)
 		{
-			add(word, tag, localRoot.firstChild);
-			add(word, tag, localRoot.sibling);
+			if (filling == null)
+				filling = new AddTask(word, tag);
+			TagNode first = node.firstChild;
+			for (TagNode child = first; child != null; child = child.sibling)
+			{
+				fillingSize += ((child.firstChild != null) && (child.size > SPLIT_THRESHOLD)) ? 1 : child.size;
+				if ((fillingSize >= SPLIT_THRESHOLD) && !add.matches(child))
+				{
+					filling.run(first, child.sibling);
+					forked.add(filling);
+					filling.fork();
+					filling = new AddTask(word, tag);
+					fillingSize = 0;
+					first = child.sibling;
+				}
+			}
+			if (first != null)
+				filling.run(first, null);
+		}
+		
+		/**
+		 * Adds the nodes counted by this task to the sizes of the large nodes above its
+		 * runs. A large node is left with a size of 1 when it is cut, and its size is done
+		 * once the tasks that walked its children have added theirs, so addTag calls this
+		 * on its tasks from last to first, every task coming after the one that forked it.
+		 */
+		void addSizes()
+		{
+			for (int i = 0; i < firsts.size(); i++)
+			{
+				TagNode parent = firsts.get(i).parent;
+				if (parent != null)
+					parent.size += sizes.get(i);
+			}
+			for (int i = large.size() - 1; i >= 0; i--)
+			{
+				TagNode node = large.get(i);
+				if (node.parent != null)
+					node.parent.size += node.size;
+			}
 		}
 	}
-	///////////////////////////////////////////////////////////////////////////////
-
+	
+	///// EDIT SCRIPTS \\\\\
+	private class Replace implements TagNodeVisitor
+	{
+		private String oldTag;
+		private String newTag;
+		private TagIndex.Changes changes;
+		
+		Replace(String oldTag, String newTag, TagIndex.Changes changes)
+		{
+			this.oldTag = oldTag;
+			this.newTag = newTag;
+			this.changes = changes;
+		}
+		
+		public int enter(TagNode localRoot)
+		{
+			if (localRoot.tag.equals(oldTag))
+				changes.retag(localRoot, newTag);
+			return CONTINUE;
+		}
+		
+		public void leave(TagNode localRoot)
+		{
+		}
+	}
+	
 	/**
-	 * Builds the DOM tree from input HTML file. The root of the 
-	 * tree is stored in the root field.
+	 * Largest number of edits in a fused pass, one per bit of a long.
 	 */
-	public void build()
+	static final int MAX_FUSED = 64;
+	
+	/**
+	 * A run of siblings, from its first node, with the edits of a fused pass that have yet
+	 * to walk it. Edits are numbered in the order of the script, and kept as bits, so they
+	 * come out in that order.
+	 */
+	private static class Chain
 	{
-		if (!sc.hasNextLine())
-			return;
+		TagNode head;
+		long edits;
 		
-		root = new TagNode(noBrackets(sc.nextLine()), null, null);
+		/**
+		 * boldRow edits for which the run is the rows of a table, and for which it is the
+		 * columns of the row to bold.
+		 */
+		long tables, rows;
 		
-		Stack<TagNode> stack = new Stack<TagNode>();
-		stack.push(root);
+		/**
+		 * Node of which the run is the children, null for the root.
+		 */
+		TagNode parent;
 		
-		while(sc.hasNextLine())
+		/**
+		 * Runs of children queued by the walks of this run so far, in the order of their
+		 * parents in the run, null if there are none.
+		 */
+		ArrayList<Chain> children;
+		
+		Chain(TagNode head, TagNode parent)
 		{
-			String line = sc.nextLine();
-			boolean isTag = false;
+			this.head = head;
+			this.parent = parent;
+		}
+	}
+	
+	/**
+	 * Applies a list of addTag, boldRow and replaceTag edits in one pass over the tree,
+	 * one run of siblings at a time. On every run, the edits are applied one after the
+	 * other, each entering the nodes of the run as its own walk would, and the runs of
+	 * children that each edit goes down into are queued with that edit. Every edit only
+	 * looks at and changes a node when entering it, and the nodes right after it (which
+	 * are in the same run) or under it, so its walk of a run sees the run as it would
+	 * have after the walks of the edits before it, as long as all of them have walked
+	 * the run before, and none of them has walked the runs under it yet.
+	 * 
+	 * The runs of children queued by the walks of a run are kept with the run, in the
+	 * order of the nodes they are the children of, so every walk of the run finds the runs
+	 * queued by the walks before it in order as it goes, without any state on the nodes.
+	 * Nodes are only ever inserted after a node, or as the only child of a node. Such a
+	 * child takes the old children under it, and later edits go down into it, then into
+	 * the old children: it is taken off the stack of runs before them, so all the edits
+	 * that go down into a run are queued before it is walked.
+	 * 
+	 * boldRow changes the columns of a table row, two levels down, when entering the
+	 * table. Here it is put off until the edits before it have walked the rows (to find
+	 * the row to bold), then the columns of that row (to bold them).
+	 */
+	private class FusedPass
+	{
+		private TreeEdit[] edits;
+		private TagNodeVisitor[] visitors;
+		private TagIndex.Changes changes = new TagIndex.Changes();
+		private ArrayList<Chain> stack = new ArrayList<Chain>();
+		
+		/**
+		 * Runs of children queued by the walks before this one of the run being walked, and
+		 * the next of them to be passed, and the runs queued by this walk so far.
+		 */
+		private ArrayList<Chain> queued;
+		private int nextQueued;
+		private ArrayList<Chain> walked = new ArrayList<Chain>();
+		
+		/**
+		 * Letters of the tags of the nodes of the run being walked, by position, as they
+		 * were last computed, and the tags they were computed from. Most nodes are not
+		 * changed by an edit, so most letters are computed once per run rather than once
+		 * per addTag edit.
+		 */
+		private String[] seenTags = new String[16];
+		private long[] seenLetters = new long[16];
+		
+		FusedPass(List<TreeEdit> script)
+		{
+			ArrayList<TreeEdit> fused = new ArrayList<TreeEdit>(script.size());
+			for (TreeEdit edit : script)
+			{
+				if (!edit.isNoOp())
+					fused.add(edit);
+			}
+			edits = fused.toArray(new TreeEdit[fused.size()]);
+			visitors = new TagNodeVisitor[edits.length];
+			for (int i = 0; i < edits.length; i++)
+			{
+				if (edits[i].kind == TreeEdit.ADD_TAG)
+					visitors[i] = new Add(edits[i].word, edits[i].tag, changes);
+				else if (edits[i].kind == TreeEdit.REPLACE_TAG)
+					visitors[i] = new Replace(edits[i].oldTag, edits[i].tag, changes);
+			}
+		}
+		
+		void run()
+		{
+			try
+			{
+				if (edits.length > 0)
+				{
+					Chain chain = new Chain(root, null);
+					chain.edits = -1L >>> (Long.SIZE - edits.length);
+					stack.add(chain);
+				}
+				while (!stack.isEmpty())
+					walk(stack.remove(stack.size() - 1));
+			}
+			finally
+			{
+				index.apply(changes);
+			}
+		}
+		
+		/**
+		 * Starts a walk of a run with one or more edits.
+		 */
+		private void startWalk(Chain chain)
+		{
+			queued = chain.children;
+			nextQueued = 0;
+			walked.clear();
+		}
+		
+		/**
+		 * Passes a node with children of the run being walked, in order, whether the walk
+		 * enters it or skips it, and queues the run of its children to be walked by some
+		 * edits, if there are any.
+		 */
+		private void pass(TagNode node, long edits, long tables, long rows)
+		{
+			Chain chain = null;
+			if ((queued != null) && (nextQueued < queued.size()) && (queued.get(nextQueued).parent == node))
+				chain = queued.get(nextQueued++);
 			
-			if (line.charAt(0) == '<')
+			if (edits != 0)
 			{
-				isTag = true;
-				line = noBrackets(line);
+				if ((chain == null) || (chain.head != node.firstChild))
+				{
+					Chain down = new Chain(node.firstChild, node);
+					if (chain != null)
+					{
+						// a child was inserted with the old children under it
+						chain.parent = node.firstChild;
+						down.children = new ArrayList<Chain>(1);
+						down.children.add(chain);
+					}
+					stack.add(down);
+					chain = down;
+				}
+				chain.edits |= edits;
+				chain.tables |= tables;
+				chain.rows |= rows;
 			}
-				
-			if ((isTag) && (line.charAt(0) == '/'))
-				stack.pop();
-
+			
+			if (chain != null)
+				walked.add(chain);
+		}
+		
+		/**
+		 * Ends a walk of a run, keeping the runs of children queued so far with it.
+		 */
+		private void endWalk(Chain chain)
+		{
+			if (walked.isEmpty())
+				return;
+			if (chain.children == null)
+				chain.children = new ArrayList<Chain>(walked.size());
 			else
+				chain.children.clear();
+			chain.children.addAll(walked);
+		}
+		
+		/**
+		 * Walks a run with all its edits. The first edits that cannot change any node of the
+		 * run (as told by the letters of the tags, for addTag) only go down into the runs of
+		 * children, so they do it all at once. The others walk the run one at a time.
+		 */
+		private void walk(Chain chain)
+		{
+			long left = chain.edits;
+			while (left != 0)
+			{
+				long unchanging = unchanging(chain, left);
+				startWalk(chain);
+				if (unchanging != 0)
+				{
+					for (TagNode node = chain.head; node != null; node = node.sibling)
+					{
+						if (node.firstChild != null)
+							pass(node, unchanging, 0, 0);
+					}
+					left &= ~unchanging;
+				}
+				else
+				{
+					walk(chain, Long.numberOfTrailingZeros(left));
+					left &= left - 1;
+				}
+				endWalk(chain);
+			}
+		}
+		
+		/**
+		 * Returns the first of some edits of a run, up to the first one that may change a
+		 * node of the run, or has to bold a table.
+		 */
+		private long unchanging(Chain chain, long left)
+		{
+			long unchanging = left;
+			long bold = left & (chain.tables | chain.rows);
+			if (bold != 0)
+				unchanging &= Long.lowestOneBit(bold) - 1;
+			
+			TagNode node = chain.head;
+			for (int pos = 0; (node != null) && (unchanging != 0); pos++)
+			{
+				long letters = letters(node, pos);
+				for (long edits = unchanging; edits != 0; edits &= edits - 1)
+				{
+					int e = Long.numberOfTrailingZeros(edits);
+					if (mayChange(e, node, letters))
+					{
+						unchanging &= (1L << e) - 1;
+						break;
+					}
+				}
+				node = node.sibling;
+			}
+			return unchanging;
+		}
+		
+		/**
+		 * Tells if an edit may change a node, or has to go down into its children with
+		 * anything to do there but walk them.
+		 */
+		private boolean mayChange(int e, TagNode node, long letters)
+		{
+			TagNodeVisitor visitor = visitors[e];
+			if (visitor instanceof Add)
+				return ((Add) visitor).mayMatch(letters);
+			if (visitor instanceof Replace)
+				return node.tag.equals(edits[e].oldTag);
+			return isTable(node);
+		}
+		
+		/**
+		 * Walks a run with one edit.
+		 */
+		private void walk(Chain chain, int e)
+		{
+			long bit = 1L << e;
+			TagNodeVisitor visitor = visitors[e];
+			TagNode boldedRow = null;
+			if (visitor == null)
+			{
+				if ((chain.rows & bit) != 0)
+					boldColumns(chain.head, changes);
+				if ((chain.tables & bit) != 0)
+					boldedRow = tableRow(chain.head, edits[e].row);
+			}
+			
+			TagNode node = chain.head;
+			for (int pos = 0; node != null; pos++)
 			{
-				TagNode temp = new TagNode(line, null, null);
-				if (stack.peek().firstChild == null)
-					stack.peek().firstChild = temp;
-				else 
+				int f = TagNodeVisitor.CONTINUE;
+				if (visitor instanceof Add)
+				{
+					if (((Add) visitor).mayMatch(letters(node, pos)))
+						f = visitor.enter(node);
+				}
+				else if (visitor != null)
+					f = visitor.enter(node);
+				
+				TagNode next = TreeWalker.next(node, f);
+				if (node.firstChild != null)
+				{
+					if ((f & TagNodeVisitor.SKIP_CHILDREN) != 0)
+						pass(node, 0, 0, 0);
+					else if (visitor != null)
+						pass(node, bit, 0, 0);
+					else
+						pass(node, bit, isTable(node) ? bit : 0, (node == boldedRow) ? bit : 0);
+				}
+				
+				// the runs under a skipped node stay queued
+				for (TagNode skipped = node.sibling; skipped != next; skipped = skipped.sibling)
 				{
-					TagNode childNode = stack.peek().firstChild;
-					while (childNode.sibling != null)
-						childNode = childNode.sibling;
-					childNode.sibling = temp;
+					if (skipped.firstChild != null)
+						pass(skipped, 0, 0, 0);
 				}
+				node = next;
+			}
+		}
+		
+		/**
+		 * Returns the letters of the tag of the node at a position in the run being walked.
+		 */
+		private long letters(TagNode node, int pos)
+		{
+			if (pos == seenTags.length)
+			{
+				seenTags = Arrays.copyOf(seenTags, 2 * pos);
+				seenLetters = Arrays.copyOf(seenLetters, 2 * pos);
+			}
+			if (seenTags[pos] != node.tag)
+			{
+				seenTags[pos] = node.tag;
+				seenLetters[pos] = Tree.letters(node.tag);
+			}
+			return seenLetters[pos];
+		}
+	}
 	
-				if (isTag)
-					stack.push(temp);
+	///// HTML \\\\\
+	private static class HtmlWriter implements TagNodeVisitor
+	{
+		private StringBuilder sb;
+		
+		HtmlWriter(StringBuilder sb)
+		{
+			this.sb = sb;
+		}
+		
+		public int enter(TagNode ptr)
+		{
+			if (ptr.firstChild == null) {
+				sb.append(ptr.tag);
+				sb.append("\n");
+			} else {
+				sb.append("<");
+				sb.append(ptr.tag);
+				sb.append(">\n");
+			}
+			return CONTINUE;
+		}
+		
+		public void leave(TagNode ptr)
+		{
+			if (ptr.firstChild != null) {
+				sb.append("</");
+				sb.append(ptr.tag);
+				sb.append(">\n");
 			}
 		}
 	}
+	///////////////////////////////////////////////////////////////////////////////
+
+	/**
+	 * Builds the DOM tree from input HTML file. The root of the 
+	 * tree is stored in the root field. The input is read in a single
+	 * pass through a buffer, and every node is appended after the last
+	 * child of its parent, which is kept on the stack of open elements,
+	 * so build time is linear in the size of the input.
+	 */
+	public void build()
+	{
+		TagReader reader = new TagReader(in);
+		try
+		{
+			if (!reader.next())
+				return;
+			
+			root = new TagNode(reader.name, null, null);
+			root.size = 1;
+			index.clear();
+			index.add(root);
+			
+			Stack<OpenElement> stack = new Stack<OpenElement>();
+			stack.push(new OpenElement(root));
+			
+			while (reader.next())
+			{
+				if (reader.kind == TagReader.CLOSE)
+				{
+					close(stack);
+					continue;
+				}
+				
+				OpenElement parent = stack.peek();
+				TagNode temp = new TagNode(reader.name, null, null);
+				temp.size = 1;
+				temp.parent = parent.node;
+				temp.prev = parent.lastChild;
+				if (parent.lastChild == null)
+					parent.node.firstChild = temp;
+				else
+					parent.lastChild.sibling = temp;
+				parent.lastChild = temp;
+				index.add(temp);
+				
+				if (reader.kind == TagReader.OPEN)
+					stack.push(new OpenElement(temp));
+				else
+					parent.node.size++;
+			}
+			
+			// elements left open end with the input
+			while (!stack.isEmpty())
+				close(stack);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("error reading HTML file", e);
+		}
+	}
 	
+	/**
+	 * Closes the innermost open element, adding the size of its subtree to its parent.
+	 */
+	private static void close(Stack<OpenElement> stack)
+	{
+		TagNode node = stack.pop().node;
+		if (!stack.isEmpty())
+			stack.peek().node.size += node.size;
+	}
 	
 	/**
 	 * Replaces all occurrences of an old tag in the DOM tree with a new tag
@@ -273,7 +1020,10 @@ public class Tree {
 	 */
 	public void replaceTag(String oldTag, String newTag)
 	{
-		replace(oldTag, newTag, root);
+		if ((oldTag == null) || (newTag == null))
+			return;
+		
+		index.rename(oldTag, newTag, pool);
 	}
 	
 	/**
@@ -284,7 +1034,15 @@ public class Tree {
 	 */
 	public void boldRow(int row) 
 	{
-		bold(row, root);
+		TagIndex.Changes changes = new TagIndex.Changes();
+		try
+		{
+			TreeWalker.walk(root, new Bold(row, changes));
+		}
+		finally
+		{
+			index.apply(changes);
+		}
 	}
 	
 	/**
@@ -292,16 +1050,24 @@ public class Tree {
 	 * are removed. If the tag is ol or ul, then All occurrences of such a tag are removed from the tree, and, 
 	 * in addition, all the li tags immediately under the removed tag are converted to p tags. 
 	 * 
+	 * Only the nodes with the tag are visited. The root is never removed, and neither are
+	 * nodes without children, which are text.
+	 * 
 	 * @param tag Tag to be removed, can be p, em, b, ol, or ul
 	 */
 	public void removeTag(String tag)
 	{
-		if ((root == null) || (tag == null))
+		if ((root == null) || (tag == null) || !hasTag(tag))
 			return;
 
-		else
-		while (hasTag(tag, root))
-			remove(tag, root, root.firstChild);
+		// removing a node leaves the other nodes with the tag where they are, so they can
+		// all be removed in any order
+		ArrayList<TagNode> nodes = index.get(tag);
+		for (TagNode node : nodes)
+		{
+			if ((node.parent != null) && (node.firstChild != null))
+				remove(node);
+		}
 	}
 
 	
@@ -317,7 +1083,184 @@ public class Tree {
 			return;
 		
 		else if ((tag.equals("em")) || (tag.equals("b")))
-			add(word, tag, root);
+		{
+			// handing the walk to a single worker would only add a thread switch
+			if ((pool == null) || (pool.getParallelism() < 2))
+			{
+				TagIndex.Changes changes = new TagIndex.Changes();
+				TreeWalker.walk(root, new Add(word, tag, changes));
+				index.apply(changes);
+				return;
+			}
+			
+			final ArrayList<AddTask> tasks = new ArrayList<AddTask>();
+			tasks.add(new AddTask(word, tag));
+			tasks.get(0).run(root, null);
+			try
+			{
+				pool.invoke(ForkJoinTask.adapt(new Runnable() {
+					public void run() {
+						tasks.get(0).fork();
+						
+						// the tasks a task forks are known once it is done
+						for (int i = 0; i < tasks.size(); i++)
+						{
+							tasks.get(i).quietlyJoin();
+							tasks.addAll(tasks.get(i).forked);
+						}
+					}
+				}));
+				
+				// rethrows what a task threw
+				for (AddTask task : tasks)
+					task.join();
+				for (int i = tasks.size() - 1; i >= 0; i--)
+					tasks.get(i).addSizes();
+			}
+			finally
+			{
+				// the nodes tagged before a task failed are in the tree, so they go in the index
+				for (AddTask task : tasks)
+					index.apply(task.changes);
+			}
+		}
+	}
+	
+	/**
+	 * Applies a list of edits, with the same result as applying each of them in order.
+	 * Every run of consecutive addTag and boldRow edits is applied in a single pass over
+	 * the tree, along with the replaceTag edits between them, so a list of edits costs
+	 * about one walk of the tree per removeTag edit in it (and per MAX_FUSED edits) rather
+	 * than one per edit. The
+	 * other replaceTag and removeTag edits are applied on their own, touching only the
+	 * nodes with their tag.
+	 * 
+	 * If a boldRow edit may find a table with too few rows, the edits that would have been
+	 * in its pass are applied one at a time, so when the IllegalArgumentException is thrown
+	 * the tree is left as the edits on their own would have left it. Passes always run on
+	 * the calling thread.
+	 * 
+	 * @param script Edits, in the order in which they are to be applied
+	 */
+	public void apply(List<TreeEdit> script)
+	{
+		if (root == null)
+			return;
+		
+		int start = 0;
+		while (start < script.size())
+		{
+			if (!script.get(start).walks())
+			{
+				script.get(start).applyTo(this);
+				start++;
+				continue;
+			}
+			
+			// the pass ends at the last edit that walks the tree before the next removeTag
+			int end = start + 1;
+			int max = Math.min(script.size(), start + MAX_FUSED);
+			for (int i = start + 1; (i < max) && (script.get(i).kind != TreeEdit.REMOVE_TAG); i++)
+			{
+				if (script.get(i).walks())
+					end = i + 1;
+			}
+			List<TreeEdit> pass = script.subList(start, end);
+			if (mayFail(pass))
+			{
+				for (TreeEdit edit : pass)
+					edit.applyTo(this);
+			}
+			else
+				new FusedPass(pass).run();
+			start = end;
+		}
+	}
+	
+	/**
+	 * Tells if a boldRow edit of a pass may find a table with too few rows. That is if
+	 * some table has fewer rows than a boldRow edit asks for, or if an edit of the pass
+	 * may change a table, one of its rows or one of its columns (which may in turn change
+	 * the rows of a table, or make a table), so their rows cannot be counted up front.
+	 */
+	private boolean mayFail(List<TreeEdit> pass)
+	{
+		int maxRow = 1;
+		for (TreeEdit edit : pass)
+		{
+			if (edit.kind == TreeEdit.BOLD_ROW)
+				maxRow = Math.max(maxRow, edit.row);
+		}
+		if (maxRow <= 1)
+			return false;
+		
+		ArrayList<Add> adds = new ArrayList<Add>();
+		HashSet<String> replaced = new HashSet<String>();
+		for (TreeEdit edit : pass)
+		{
+			if (edit.isNoOp())
+				continue;
+			if (edit.kind == TreeEdit.ADD_TAG)
+				adds.add(new Add(edit.word, edit.tag, null));
+			else if (edit.kind == TreeEdit.REPLACE_TAG)
+			{
+				if (edit.oldTag.equals("table") || edit.tag.equals("table"))
+					return true;
+				replaced.add(edit.oldTag);
+			}
+		}
+		if (!hasTag("table"))
+			return false;
+		
+		for (TagNode table : index.get("table"))
+		{
+			if (!isTable(table))
+				continue;
+			if (mayTouch(table, adds, replaced))
+				return true;
+			int rows = 0;
+			for (TagNode row = table.firstChild; row != null; row = row.sibling)
+			{
+				rows++;
+				if (mayTouch(row, adds, replaced))
+					return true;
+				for (TagNode col = row.firstChild; col != null; col = col.sibling)
+				{
+					if (col.tag.equals("table") || mayTouch(col, adds, replaced))
+						return true;
+				}
+			}
+			if (rows < maxRow)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Tells if any of some addTag and replaceTag edits may change a node.
+	 */
+	private static boolean mayTouch(TagNode node, ArrayList<Add> adds, HashSet<String> replaced)
+	{
+		if (replaced.contains(node.tag))
+			return true;
+		for (Add add : adds)
+		{
+			if (add.matches(node))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Sets the pool in which addTag and replaceTag run in parallel. Only large trees (or,
+	 * for replaceTag, large numbers of nodes with the old tag) are actually split between
+	 * threads, and addTag runs on the calling thread if the pool has a single worker.
+	 * 
+	 * @param pool Fork-join pool, null to run all operations on the calling thread
+	 */
+	public void setForkJoinPool(ForkJoinPool pool)
+	{
+		this.pool = pool;
 	}
 	
 	/**
@@ -329,25 +1272,8 @@ public class Tree {
 	 */
 	public String getHTML() {
 		StringBuilder sb = new StringBuilder();
-		getHTML(root, sb);
+		TreeWalker.walk(root, new HtmlWriter(sb));
 		return sb.toString();
 	}
 	
-	private void getHTML(TagNode root, StringBuilder sb) {
-		for (TagNode ptr=root; ptr != null;ptr=ptr.sibling) {
-			if (ptr.firstChild == null) {
-				sb.append(ptr.tag);
-				sb.append("\n");
-			} else {
-				sb.append("<");
-				sb.append(ptr.tag);
-				sb.append(">\n");
-				getHTML(ptr.firstChild, sb);
-				sb.append("</");
-				sb.append(ptr.tag);
-				sb.append(">\n");	
-			}
-		}
-	}
-	
 }
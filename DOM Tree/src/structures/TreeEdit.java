@@ -0,0 +1,140 @@
+package structures;
+
+/**
+ * An edit of a DOM tree, one of replaceTag, removeTag, addTag and boldRow with its
+ * arguments, for applying a list of edits to a Tree at once with Tree.apply.
+ *
+ */
+public class TreeEdit {
+
+	/**
+	 * Kinds of edits.
+	 */
+	static final int REPLACE_TAG = 0;
+	static final int REMOVE_TAG = 1;
+	static final int ADD_TAG = 2;
+	static final int BOLD_ROW = 3;
+
+	/**
+	 * Kind of this edit.
+	 */
+	final int kind;
+
+	/**
+	 * Tag to replace, for replaceTag.
+	 */
+	final String oldTag;
+
+	/**
+	 * New tag for replaceTag, tag to remove for removeTag, tag to add for addTag.
+	 */
+	final String tag;
+
+	/**
+	 * Word around which to add the tag, for addTag.
+	 */
+	final String word;
+
+	/**
+	 * Row to bold, for boldRow.
+	 */
+	final int row;
+
+	private TreeEdit(int kind, String oldTag, String tag, String word, int row) {
+		this.kind = kind;
+		this.oldTag = oldTag;
+		this.tag = tag;
+		this.word = word;
+		this.row = row;
+	}
+
+	/**
+	 * Returns an edit that does what Tree.replaceTag(oldTag, newTag) does.
+	 *
+	 * @param oldTag Old tag
+	 * @param newTag Replacement tag
+	 */
+	public static TreeEdit replaceTag(String oldTag, String newTag) {
+		return new TreeEdit(REPLACE_TAG, oldTag, newTag, null, 0);
+	}
+
+	/**
+	 * Returns an edit that does what Tree.removeTag(tag) does.
+	 *
+	 * @param tag Tag to be removed
+	 */
+	public static TreeEdit removeTag(String tag) {
+		return new TreeEdit(REMOVE_TAG, null, tag, null, 0);
+	}
+
+	/**
+	 * Returns an edit that does what Tree.addTag(word, tag) does.
+	 *
+	 * @param word Word around which tag is to be added
+	 * @param tag Tag to be added
+	 */
+	public static TreeEdit addTag(String word, String tag) {
+		return new TreeEdit(ADD_TAG, null, tag, word, 0);
+	}
+
+	/**
+	 * Returns an edit that does what Tree.boldRow(row) does.
+	 *
+	 * @param row Row to bold, first row is numbered 1 (not 0)
+	 */
+	public static TreeEdit boldRow(int row) {
+		return new TreeEdit(BOLD_ROW, null, null, null, row);
+	}
+
+	/**
+	 * Applies this edit to a tree on its own, with the method of the tree of the same name.
+	 *
+	 * @param tree Tree
+	 */
+	public void applyTo(Tree tree) {
+		switch (kind) {
+		case REPLACE_TAG:
+			tree.replaceTag(oldTag, tag);
+			break;
+		case REMOVE_TAG:
+			tree.removeTag(tag);
+			break;
+		case ADD_TAG:
+			tree.addTag(word, tag);
+			break;
+		default:
+			tree.boldRow(row);
+		}
+	}
+
+	/**
+	 * Tells if this edit has to walk the whole tree, rather than only the nodes with a tag.
+	 */
+	boolean walks() {
+		if (kind == BOLD_ROW)
+			return true;
+		return (kind == ADD_TAG) && (word != null) && ("em".equals(tag) || "b".equals(tag));
+	}
+
+	/**
+	 * Tells if this edit leaves every tree as it is.
+	 */
+	boolean isNoOp() {
+		if (kind == REPLACE_TAG)
+			return (oldTag == null) || (tag == null) || oldTag.equals(tag);
+		return (kind == ADD_TAG) && !walks();
+	}
+
+	public String toString() {
+		switch (kind) {
+		case REPLACE_TAG:
+			return "replaceTag(" + oldTag + ", " + tag + ")";
+		case REMOVE_TAG:
+			return "removeTag(" + tag + ")";
+		case ADD_TAG:
+			return "addTag(" + word + ", " + tag + ")";
+		default:
+			return "boldRow(" + row + ")";
+		}
+	}
+}
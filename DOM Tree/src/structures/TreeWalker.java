@@ -0,0 +1,102 @@
+package structures;
+
+/**
+ * Walks TagNodes in document order without recursion. The nodes whose children are being
+ * walked are kept on an explicit stack (along with the flags returned when they were
+ * entered), so the depth of a tree is only limited by the heap, and the length of a
+ * sibling list takes no stack at all.
+ *
+ */
+class TreeWalker {
+
+	/**
+	 * Nodes whose children are being walked.
+	 */
+	private TagNode[] open;
+
+	/**
+	 * Flags returned by enter for the nodes in open.
+	 */
+	private int[] flags;
+
+	/**
+	 * Number of nodes in open.
+	 */
+	private int depth;
+
+	/**
+	 * Initializes a walker.
+	 */
+	public TreeWalker() {
+		open = new TagNode[16];
+		flags = new int[16];
+	}
+
+	/**
+	 * Walks a node, its descendants, and the siblings after it and their descendants, the
+	 * same nodes that a recursion on firstChild then sibling would reach.
+	 *
+	 * @param start First node, may be null
+	 * @param visitor Callbacks
+	 */
+	public static void walk(TagNode start, TagNodeVisitor visitor)
+	{
+		new TreeWalker().run(start, visitor);
+	}
+
+	private void run(TagNode node, TagNodeVisitor visitor)
+	{
+		while (true)
+		{
+			while (node != null)
+			{
+				int f = visitor.enter(node);
+				if (((f & TagNodeVisitor.SKIP_CHILDREN) == 0) && (node.firstChild != null))
+				{
+					push(node, f);
+					node = node.firstChild;
+				}
+				else
+				{
+					visitor.leave(node);
+					node = next(node, f);
+				}
+			}
+
+			if (depth == 0)
+				return;
+			depth--;
+			node = open[depth];
+			open[depth] = null;
+			visitor.leave(node);
+			node = next(node, flags[depth]);
+		}
+	}
+
+	/**
+	 * Returns the node after a node that has been left.
+	 */
+	static TagNode next(TagNode node, int f)
+	{
+		TagNode next = node.sibling;
+		if (((f & TagNodeVisitor.SKIP_NEXT_SIBLING) != 0) && (next != null))
+			next = next.sibling;
+		return next;
+	}
+
+	private void push(TagNode node, int f)
+	{
+		if (depth == open.length)
+		{
+			TagNode[] grownOpen = new TagNode[2 * depth];
+			System.arraycopy(open, 0, grownOpen, 0, depth);
+			open = grownOpen;
+			int[] grownFlags = new int[2 * depth];
+			System.arraycopy(flags, 0, grownFlags, 0, depth);
+			flags = grownFlags;
+		}
+		open[depth] = node;
+		flags[depth] = f;
+		depth++;
+	}
+}
@@ -0,0 +1,133 @@
+package structures;
+
+import java.io.*;
+
+/**
+ * Checks of TagReader and of trees built through it, on input that arrives in small chunks.
+ * Every failed check is printed, and the exit status is 1 if any check failed.
+ *
+ * Usage: java structures.TagReaderTest
+ *
+ */
+public class TagReaderTest {
+
+	/**
+	 * Number of failed checks.
+	 */
+	static int failures;
+
+	/**
+	 * @param args Not used
+	 */
+	public static void main(String[] args)
+	throws IOException {
+		String page = "<html>\n<body>\n<p>\nsome text\n</p>\n\n<p>\n<b>\nbold\n</b>\n</p>\n</body>\n</html>\n";
+		String[] lines = page.split("\n+");
+
+		for (int chunk = 1; chunk <= 8; chunk++)
+		{
+			check("LF lines in chunks of " + chunk, lines, new ChunkReader(page, chunk, false));
+			check("CRLF lines in chunks of " + chunk, lines, new ChunkReader(page.replace("\n", "\r\n"), chunk, false));
+			check("CR lines in chunks of " + chunk, lines, new ChunkReader(page.replace("\n", "\r"), chunk, false));
+			check("CRLF lines with chunks ending in CR, at most " + chunk, lines,
+				new ChunkReader(page.replace("\n", "\r\n"), chunk, true));
+		}
+
+		// a page larger than the buffer, so lines are moved and the buffer is refilled
+		StringBuilder big = new StringBuilder("<html>\n<body>\n");
+		for (int i = 0; big.length() < 3 * TagReader.BUFFER_SIZE; i++)
+			big.append("<p>\nparagraph ").append(i).append("\n</p>\n");
+		big.append("</body>\n</html>\n");
+		String html = html(new StringReader(big.toString()));
+		String crlf = big.toString().replace("\n", "\r\n");
+		check("large CRLF page with chunks ending in CR",
+			html.equals(html(new ChunkReader(crlf, 4093, true))));
+		check("large CRLF page in one read", html.equals(html(new StringReader(crlf))));
+
+		System.out.println(failures + " failed checks");
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Checks that a TagReader reads the given lines, and nothing else.
+	 */
+	static void check(String name, String[] lines, Reader in)
+	throws IOException
+	{
+		TagReader reader = new TagReader(in);
+		for (String line : lines)
+		{
+			if (!reader.next())
+			{
+				check(name + ": missing " + line, false);
+				return;
+			}
+			String read = (reader.kind == TagReader.TEXT) ? reader.name
+				: (reader.kind == TagReader.OPEN) ? "<" + reader.name + ">" : null;
+			if ((read == null) ? !line.startsWith("</") : !line.equals(read))
+			{
+				check(name + ": read " + read + " for " + line, false);
+				return;
+			}
+		}
+		check(name + ": lines after the last one", !reader.next());
+	}
+
+	/**
+	 * Returns the HTML of a tree built from an input.
+	 */
+	static String html(Reader in)
+	throws IOException
+	{
+		Tree tree = new Tree(in);
+		tree.build();
+		return tree.getHTML();
+	}
+
+	/**
+	 * Reports a check that failed.
+	 */
+	static void check(String name, boolean passed)
+	{
+		if (!passed)
+		{
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+
+	/**
+	 * Reader over a string that returns at most a given number of characters at a time,
+	 * and, if asked, ends every read after a '\r'.
+	 */
+	static class ChunkReader extends Reader {
+		private String s;
+		private int chunk;
+		private boolean breakAfterCR;
+		private int pos;
+
+		ChunkReader(String s, int chunk, boolean breakAfterCR) {
+			this.s = s;
+			this.chunk = chunk;
+			this.breakAfterCR = breakAfterCR;
+		}
+
+		public int read(char[] cbuf, int off, int len) {
+			if (pos == s.length())
+				return -1;
+			int n = 0;
+			while ((n < Math.min(len, chunk)) && (pos < s.length()))
+			{
+				char c = s.charAt(pos++);
+				cbuf[off + n++] = c;
+				if (breakAfterCR && (c == '\r'))
+					break;
+			}
+			return n;
+		}
+
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package structures;
+
+import java.io.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks that addTag gives the same tree with a fork-join pool as without one, on pages
+ * large enough to be split between tasks, and that the subtree sizes it counts are right.
+ * Every failed check is printed, and the exit status is 1 if any check failed.
+ *
+ * Usage: java structures.TreeTest
+ *
+ */
+public class TreeTest {
+
+	/**
+	 * Number of failed checks.
+	 */
+	static int failures;
+
+	/**
+	 * Pool with more than one worker, so addTag is split between tasks even on one
+	 * processor.
+	 */
+	static ForkJoinPool pool = new ForkJoinPool(4);
+
+	/**
+	 * @param args Not used
+	 */
+	public static void main(String[] args)
+	throws IOException {
+		String text = "Lorem ipsum dolor sit amet, consectetur adipiscing elit.";
+		StringBuilder wide = new StringBuilder("<html>\n<body>\n");
+		for (int i = 0; i < 20000; i++)
+			wide.append("<p>\n").append(text).append("\n</p>\n");
+		wide.append("</body>\n</html>\n");
+		check("wide page", wide.toString());
+
+		StringBuilder nested = new StringBuilder("<html>\n<body>\n");
+		for (int i = 0; i < 20000; i++)
+			nested.append("<div>\n").append(text).append('\n');
+		for (int i = 0; i < 20000; i++)
+			nested.append("</div>\n");
+		nested.append("</body>\n</html>\n");
+		check("nested page", nested.toString());
+
+		pool.shutdown();
+		System.out.println(failures + " failed checks");
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Applies the same edits to a page with and without the pool, and compares the trees
+	 * after every addTag.
+	 */
+	static void check(String name, String html)
+	throws IOException
+	{
+		Tree sequential = tree(html);
+		Tree parallel = tree(html);
+		parallel.setForkJoinPool(pool);
+
+		String[][] edits = {{"ipsum", "em"}, {"dolor", "b"}, {"remove p"}, {"amet", "em"}, {"elit", "b"}};
+		for (String[] edit : edits)
+		{
+			if (edit.length == 1)
+			{
+				sequential.removeTag("p");
+				parallel.removeTag("p");
+				continue;
+			}
+			sequential.addTag(edit[0], edit[1]);
+			parallel.addTag(edit[0], edit[1]);
+			String after = name + ", addTag " + edit[0] + " " + edit[1];
+			check(after + ": same HTML", sequential.getHTML().equals(parallel.getHTML()));
+			check(after + ": size of the root", parallel.root.size == count(parallel.root));
+		}
+	}
+
+	static Tree tree(String html)
+	{
+		Tree tree = new Tree(new StringReader(html));
+		tree.build();
+		return tree;
+	}
+
+	/**
+	 * Returns the number of nodes in the subtree of a node.
+	 */
+	static int count(TagNode node)
+	{
+		final int[] nodes = new int[1];
+		TreeWalker.walk(node, new TagNodeVisitor() {
+			public int enter(TagNode localRoot) {
+				nodes[0]++;
+				return CONTINUE;
+			}
+
+			public void leave(TagNode localRoot) {
+			}
+		});
+		return nodes[0];
+	}
+
+	/**
+	 * Reports a check that failed.
+	 */
+	static void check(String name, boolean passed)
+	{
+		if (!passed)
+		{
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+}
@@ -0,0 +1,508 @@
+package search;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * Benchmark harness for LittleSearchEngine. Generates a Zipfian corpus (see CorpusGenerator)
+ * in a temporary directory, then measures makeIndex (sequential, parallel, and with keyword
+ * positions recorded, whose memory overhead is also reported), indexing throughput in MB/s
+ * with a Scanner, with makeIndex and through an IngestPipeline, loadKeyWords,
+ * getKeyWord, insertLastOccurrence, top5search, topKSearch and bm25Search, and bursts of
+ * top5search queries run one at a time against searchBatch and searchAllAsync. Every benchmark is warmed up
+ * before it is measured. Throughput and allocation per operation are reported for each
+ * benchmark (allocation is measured on the calling thread only, so it is left out for the
+ * parallel index build), and percentile latencies are reported for the searches. Last, the
+ * noise word check on every word of AliceCh1.txt and WowCh1.txt (if they are in the current
+ * directory) is measured with the noise words hash table and with the compiled NoiseWords.
+ * 
+ * Usage: java search.Benchmarks [-docs n] [-words n] [-vocab n] [-skew s] [-seed n]
+ * 
+ */
+public class Benchmarks {
+
+	/**
+	 * Code being measured.
+	 */
+	interface Task {
+		/**
+		 * Runs the code once.
+		 * 
+		 * @return Number of operations done
+		 */
+		int run()
+		throws Exception;
+	}
+
+	/**
+	 * Number of warm-up iterations.
+	 */
+	static final int WARMUP = 5;
+
+	/**
+	 * Number of measured iterations.
+	 */
+	static final int ITERATIONS = 10;
+
+	/**
+	 * Number of search latency samples.
+	 */
+	static final int SAMPLES = 100000;
+
+	/**
+	 * Number of queries in a burst, and number of burst latency samples.
+	 */
+	static final int BURST = 1000;
+	static final int BURST_SAMPLES = 500;
+
+	/**
+	 * Results of measured code are written here so that it is not optimized away.
+	 */
+	static volatile Object sink;
+
+	/**
+	 * @param args Corpus options
+	 */
+	public static void main(String[] args)
+	throws Exception {
+		int docs = intOption(args, "-docs", 500);
+		int words = intOption(args, "-words", 2000);
+		int vocab = intOption(args, "-vocab", 20000);
+		double skew = Double.parseDouble(option(args, "-skew", "1.0"));
+		long seed = Long.parseLong(option(args, "-seed", "42"));
+
+		File dir = new File(System.getProperty("java.io.tmpdir"), "lse-bench-" + seed);
+		final CorpusGenerator gen = new CorpusGenerator(vocab, skew, seed);
+		final String docsFile = gen.write(dir, docs, words);
+		final String noiseFile = "noisewords.txt";
+		System.out.println("corpus: " + docs + " documents x " + words + " words, vocabulary " + vocab
+			+ ", skew " + skew + ", in " + dir);
+		System.out.println();
+
+		final int threads = Runtime.getRuntime().availableProcessors();
+		measure("makeIndex", "docs", true, new Task() {
+			public int run() throws Exception {
+				LittleSearchEngine lse = new LittleSearchEngine();
+				lse.makeIndex(docsFile, noiseFile);
+				sink = lse;
+				return lse.documentKeywords.size();
+			}
+		});
+		measure("makeIndex x" + threads, "docs", false, new Task() {
+			public int run() throws Exception {
+				LittleSearchEngine lse = new LittleSearchEngine();
+				lse.makeIndex(docsFile, noiseFile, threads);
+				sink = lse;
+				return lse.documentKeywords.size();
+			}
+		});
+
+		measure("makeIndex +positions", "docs", true, new Task() {
+			public int run() throws Exception {
+				LittleSearchEngine lse = new LittleSearchEngine();
+				lse.enablePositions();
+				lse.makeIndex(docsFile, noiseFile);
+				sink = lse;
+				return lse.documentKeywords.size();
+			}
+		});
+		positionsFootprint(docsFile, noiseFile);
+		ingestThroughput(docsFile, noiseFile, Math.max(2, threads));
+
+		final LittleSearchEngine lse = new LittleSearchEngine();
+		lse.makeIndex(docsFile, noiseFile);
+		final String firstDoc = new File(dir, "doc0.txt").getPath();
+		measure("loadKeyWords", "docs", true, new Task() {
+			public int run() throws Exception {
+				sink = lse.loadKeyWords(firstDoc);
+				return 1;
+			}
+		});
+
+		final String[] candidates = new String[4096];
+		for (int i = 0; i < candidates.length; i++)
+			candidates[i] = (i % 3 == 0) ? gen.nextWord() + "," : (i % 7 == 0) ? "It's" : gen.nextWord();
+		measure("getKeyWord", "words", true, new Task() {
+			public int run() {
+				for (String c : candidates)
+					sink = lse.getKeyWord(c);
+				return candidates.length;
+			}
+		});
+
+		final ArrayList<Occurrence> occs = new ArrayList<Occurrence>();
+		for (int i = 0; i < 1000; i++)
+			occs.add(new Occurrence("doc", 1000 - i));
+		final Random random = new Random(seed);
+		measure("insertLastOccurrence", "inserts", true, new Task() {
+			public int run() {
+				for (int i = 0; i < 1000; i++)
+				{
+					occs.add(new Occurrence("new", random.nextInt(1100)));
+					ArrayList<Integer> mids = lse.insertLastOccurrence(occs);
+					occs.remove((int) mids.get(mids.size() - 1));
+				}
+				return 1000;
+			}
+		});
+
+		// queries mix frequent and rare words
+		final String[][] queries = new String[1024][];
+		for (int i = 0; i < queries.length; i++)
+			queries[i] = new String[] {gen.word(random.nextInt(Math.min(vocab, 50))), gen.nextWord()};
+
+		PrintStream out = System.out;
+		Task top5 = new Task() {
+			int q;
+			public int run() {
+				String[] query = queries[q++ & (queries.length - 1)];
+				sink = lse.top5search(query[0], query[1]);
+				return 1;
+			}
+		};
+		Task topK = new Task() {
+			int q;
+			public int run() {
+				String[] query = queries[q++ & (queries.length - 1)];
+				sink = lse.topKSearch(Arrays.asList(query), 20);
+				return 1;
+			}
+		};
+		Task bm25 = new Task() {
+			int q;
+			public int run() {
+				String[] query = queries[q++ & (queries.length - 1)];
+				sink = lse.bm25Search(Arrays.asList(query), 20);
+				return 1;
+			}
+		};
+		measure(out, "top5search", "queries", true, batch(top5, 1000));
+		measure(out, "topKSearch k=20", "queries", true, batch(topK, 1000));
+		measure(out, "bm25Search k=20", "queries", true, batch(bm25, 1000));
+		latency(out, "top5search", top5);
+		latency(out, "topKSearch k=20", topK);
+		latency(out, "bm25Search k=20", bm25);
+
+		// bursts of top5search queries, one call at a time and in batches
+		final ArrayList<Query> burst = new ArrayList<Query>();
+		for (int i = 0; i < BURST; i++)
+			burst.add(new Query(queries[i & (queries.length - 1)][0], queries[i & (queries.length - 1)][1]));
+		Task loop = new Task() {
+			public int run() {
+				for (Query q : burst)
+					sink = lse.top5search(q.keywords.get(0), q.keywords.get(1));
+				return burst.size();
+			}
+		};
+		Task batch = new Task() {
+			public int run() {
+				sink = lse.searchBatch(burst);
+				return burst.size();
+			}
+		};
+		Task async = new Task() {
+			public int run() {
+				sink = lse.searchAllAsync(burst).join();
+				return burst.size();
+			}
+		};
+		out.println();
+		out.println("bursts of " + BURST + " top5search queries, search pool parallelism " + lse.searchPool.getParallelism());
+		measure(out, "top5search loop", "queries", false, loop);
+		measure(out, "searchBatch", "queries", false, batch);
+		measure(out, "searchAllAsync", "queries", false, async);
+		latency(out, "top5search loop", loop, BURST_SAMPLES);
+		latency(out, "searchBatch", batch, BURST_SAMPLES);
+		latency(out, "searchAllAsync", async, BURST_SAMPLES);
+
+		noiseWordLookups(noiseFile, new String[] {"AliceCh1.txt", "WowCh1.txt"});
+	}
+
+	/**
+	 * Reports the heap space taken by keyword positions: the encoded bytes, and the estimated
+	 * size of the arrays holding them, against the number of keyword occurrences in the text.
+	 */
+	static void positionsFootprint(String docsFile, String noiseFile)
+	throws Exception
+	{
+		LittleSearchEngine lse = new LittleSearchEngine();
+		lse.enablePositions();
+		lse.makeIndex(docsFile, noiseFile);
+
+		long keywords = 0;
+		long occurrences = 0;
+		long encoded = 0;
+		long arrays = 0;
+		for (ArrayList<Occurrence> occs : lse.keywordsIndex.values())
+		{
+			for (Occurrence oc : occs)
+			{
+				keywords += oc.frequency;
+				occurrences++;
+				encoded += oc.positions.length;
+				arrays += CompactIndex.align(CompactIndex.OBJECT_BYTES + 4 + oc.positions.length);
+			}
+		}
+		System.out.printf("positions: %d keywords in %d occurrences, %d bytes encoded (%.2f per keyword),"
+			+ " %d bytes with array headers (%.2f per keyword)%n",
+			keywords, occurrences, encoded, (double) encoded / keywords, arrays, (double) arrays / keywords);
+	}
+
+	/**
+	 * Compares indexing throughput, in megabytes of documents per second, of scanning every
+	 * document with a Scanner and getKeyWord (as loadKeyWords used to do), of makeIndex,
+	 * and of makeIndex reading through an IngestPipeline with the given number of workers.
+	 */
+	static void ingestThroughput(final String docsFile, final String noiseFile, final int threads)
+	throws Exception
+	{
+		final ArrayList<String> docFiles = new ArrayList<String>();
+		long total = 0;
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext())
+		{
+			String docFile = sc.next();
+			docFiles.add(docFile);
+			total += new File(docFile).length();
+		}
+		final int bytes = (int) total;
+
+		System.out.println();
+		System.out.printf("indexing %d documents, %.1f MB%n", docFiles.size(), bytes / 1e6);
+		measure(System.out, "Scanner + getKeyWord", "MB", 1e6, true, new Task() {
+			public int run() throws Exception {
+				LittleSearchEngine lse = new LittleSearchEngine();
+				lse.loadNoiseWords(noiseFile);
+				for (String docFile : docFiles)
+				{
+					HashMap<String,Occurrence> kws = new HashMap<String,Occurrence>();
+					Scanner words = new Scanner(new File(docFile));
+					while (words.hasNext())
+					{
+						String key = lse.getKeyWord(words.next());
+						if (key == null)
+							continue;
+						Occurrence oc = kws.get(key);
+						if (oc != null)
+							oc.frequency++;
+						else
+							kws.put(key, new Occurrence(docFile, 1));
+					}
+					words.close();
+					lse.mergeKeyWords(kws);
+				}
+				sink = lse;
+				return bytes;
+			}
+		});
+		measure(System.out, "makeIndex", "MB", 1e6, true, new Task() {
+			public int run() throws Exception {
+				LittleSearchEngine lse = new LittleSearchEngine();
+				lse.makeIndex(docsFile, noiseFile);
+				sink = lse;
+				return bytes;
+			}
+		});
+		measure(System.out, "IngestPipeline x" + threads, "MB", 1e6, false, new Task() {
+			public int run() throws Exception {
+				LittleSearchEngine lse = new LittleSearchEngine();
+				lse.makeIndex(docsFile, noiseFile, threads);
+				sink = lse;
+				return bytes;
+			}
+		});
+	}
+
+	/**
+	 * Compares checking every word of some documents against the noise words hash table
+	 * (after case folding into a new String, as getKeyWord used to do) with checking the
+	 * case folded characters against the compiled NoiseWords.
+	 */
+	static void noiseWordLookups(String noiseFile, String[] docFiles)
+	throws Exception
+	{
+		final HashMap<String,String> table = new HashMap<String,String>(100, 2.0f);
+		Scanner sc = new Scanner(new File(noiseFile));
+		while (sc.hasNext())
+		{
+			String word = sc.next();
+			table.put(word, word);
+		}
+		final NoiseWords compiled = new NoiseWords(table.keySet());
+
+		ArrayList<String> list = new ArrayList<String>();
+		for (String docFile : docFiles)
+		{
+			if (!new File(docFile).exists())
+				continue;
+			sc = new Scanner(new File(docFile));
+			while (sc.hasNext())
+				list.add(sc.next());
+		}
+		if (list.isEmpty())
+			return;
+
+		final String[] words = list.toArray(new String[list.size()]);
+		Task hashMap = new Task() {
+			public int run() {
+				int hits = 0;
+				for (String w : words)
+				{
+					if (table.containsKey(w.toLowerCase()))
+						hits++;
+				}
+				sink = hits;
+				return words.length;
+			}
+		};
+		Task perfectHash = new Task() {
+			char[] buf = new char[64];
+			public int run() {
+				int hits = 0;
+				for (String w : words)
+				{
+					int n = w.length();
+					if (n > buf.length)
+						buf = new char[n];
+					for (int i = 0; i < n; i++)
+						buf[i] = Character.toLowerCase(w.charAt(i));
+					if (compiled.contains(buf, 0, n))
+						hits++;
+				}
+				sink = hits;
+				return words.length;
+			}
+		};
+
+		System.out.println();
+		System.out.println("noise word check on " + words.length + " words of " + Arrays.toString(docFiles));
+		measure("HashMap.containsKey", "words", true, batch(hashMap, 100));
+		measure("NoiseWords.contains", "words", true, batch(perfectHash, 100));
+	}
+
+	static void measure(String name, String unit, boolean allocation, Task task)
+	throws Exception
+	{
+		measure(System.out, name, unit, allocation, task);
+	}
+
+	/**
+	 * Runs a task WARMUP times, then ITERATIONS times while measuring, and prints the
+	 * throughput (mean and range over the iterations) and bytes allocated per operation.
+	 */
+	static void measure(PrintStream out, String name, String unit, boolean allocation, Task task)
+	throws Exception
+	{
+		measure(out, name, unit, 1, allocation, task);
+	}
+
+	/**
+	 * Runs a task WARMUP times, then ITERATIONS times while measuring, and prints the
+	 * throughput in units of scale operations (mean and range over the iterations) and
+	 * bytes allocated per operation.
+	 */
+	static void measure(PrintStream out, String name, String unit, double scale, boolean allocation, Task task)
+	throws Exception
+	{
+		for (int i = 0; i < WARMUP; i++)
+			task.run();
+
+		double[] rates = new double[ITERATIONS];
+		long ops = 0;
+		long allocated = allocatedBytes();
+		for (int i = 0; i < ITERATIONS; i++)
+		{
+			long start = System.nanoTime();
+			int n = task.run();
+			long nanos = System.nanoTime() - start;
+			ops += n;
+			rates[i] = n * 1e9 / nanos / scale;
+		}
+		allocated = allocatedBytes() - allocated;
+
+		Arrays.sort(rates);
+		double mean = 0;
+		for (double r : rates)
+			mean += r / ITERATIONS;
+		String alloc = (allocation && allocated >= 0) ? String.format("%12.1f B/op", (double) allocated / ops) : String.format("%15s", "n/a");
+		out.printf("%-24s %14.1f %s/s  [%.1f .. %.1f]  %s%n", name, mean, unit, rates[0], rates[ITERATIONS - 1], alloc);
+	}
+
+	/**
+	 * Times SAMPLES single runs of a task, after as many warm-up runs, and prints the
+	 * latency percentiles.
+	 */
+	static void latency(PrintStream out, String name, Task task)
+	throws Exception
+	{
+		latency(out, name, task, SAMPLES);
+	}
+
+	/**
+	 * Times the given number of single runs of a task, after as many warm-up runs, and
+	 * prints the latency percentiles.
+	 */
+	static void latency(PrintStream out, String name, Task task, int samples)
+	throws Exception
+	{
+		for (int i = 0; i < samples; i++)
+			task.run();
+
+		long[] nanos = new long[samples];
+		for (int i = 0; i < samples; i++)
+		{
+			long start = System.nanoTime();
+			task.run();
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		out.printf("%-24s p50 %8.2f us  p90 %8.2f us  p99 %8.2f us  p99.9 %8.2f us  max %8.2f us%n", name + " latency",
+			percentile(nanos, 0.50), percentile(nanos, 0.90), percentile(nanos, 0.99), percentile(nanos, 0.999),
+			nanos[samples - 1] / 1000.0);
+	}
+
+	static double percentile(long[] sorted, double p)
+	{
+		return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1000.0;
+	}
+
+	static Task batch(final Task task, final int times)
+	{
+		return new Task() {
+			public int run() throws Exception {
+				int ops = 0;
+				for (int i = 0; i < times; i++)
+					ops += task.run();
+				return ops;
+			}
+		};
+	}
+
+	/**
+	 * Returns the number of bytes allocated so far by the calling thread, -1 if the VM
+	 * does not tell.
+	 */
+	static long allocatedBytes()
+	{
+		ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if (mx instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) mx).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	static String option(String[] args, String name, String value)
+	{
+		for (int i = 0; i < args.length - 1; i++)
+		{
+			if (args[i].equals(name))
+				return args[i + 1];
+		}
+		return value;
+	}
+
+	static int intOption(String[] args, String name, int value)
+	{
+		return Integer.parseInt(option(args, name, String.valueOf(value)));
+	}
+}
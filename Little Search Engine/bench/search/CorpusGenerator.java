@@ -0,0 +1,157 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Generates a synthetic corpus for benchmarking: a set of document files whose words are
+ * drawn from a Zipfian distribution over a made-up vocabulary, and a documents file that
+ * lists them, in the format expected by LittleSearchEngine.makeIndex. Some words are given
+ * trailing punctuation or a capital letter, so that the keyword rules get exercised.
+ * 
+ */
+class CorpusGenerator {
+
+	/**
+	 * Number of distinct words.
+	 */
+	private int vocabulary;
+
+	/**
+	 * Exponent of the Zipfian distribution.
+	 */
+	private double skew;
+
+	/**
+	 * Random number generator, seeded for repeatable corpora.
+	 */
+	private Random random;
+
+	/**
+	 * Words of the vocabulary, most frequent first.
+	 */
+	private String[] words;
+
+	/**
+	 * Cumulative probability of the words.
+	 */
+	private double[] cumulative;
+
+	/**
+	 * Initializes a generator.
+	 * 
+	 * @param vocabulary Number of distinct words
+	 * @param skew Exponent of the Zipfian distribution (1.0 is classic Zipf)
+	 * @param seed Random seed
+	 */
+	public CorpusGenerator(int vocabulary, double skew, long seed) {
+		this.vocabulary = vocabulary;
+		this.skew = skew;
+		random = new Random(seed);
+
+		words = new String[vocabulary];
+		HashSet<String> seen = new HashSet<String>();
+		for (int i = 0; i < vocabulary; i++)
+		{
+			String w;
+			do
+			{
+				w = randomWord(3 + random.nextInt(8));
+			}
+			while (!seen.add(w));
+			words[i] = w;
+		}
+
+		cumulative = new double[vocabulary];
+		double total = 0;
+		for (int i = 0; i < vocabulary; i++)
+		{
+			total += 1.0 / Math.pow(i + 1, skew);
+			cumulative[i] = total;
+		}
+		for (int i = 0; i < vocabulary; i++)
+			cumulative[i] /= total;
+	}
+
+	/**
+	 * Returns the i-th most frequent word of the vocabulary.
+	 * 
+	 * @param i Rank of the word, 0..vocabulary-1
+	 * @return Word
+	 */
+	public String word(int i)
+	{
+		return words[i];
+	}
+
+	/**
+	 * Draws a word from the Zipfian distribution.
+	 * 
+	 * @return Word
+	 */
+	public String nextWord()
+	{
+		int i = Arrays.binarySearch(cumulative, random.nextDouble());
+		if (i < 0)
+			i = -i - 1;
+		return words[Math.min(i, vocabulary - 1)];
+	}
+
+	/**
+	 * Writes a corpus into a directory.
+	 * 
+	 * @param dir Directory for the documents, created if needed
+	 * @param documents Number of documents
+	 * @param wordsPerDocument Number of words in each document
+	 * @return Name of the documents file listing all documents
+	 * @throws IOException If the corpus cannot be written
+	 */
+	public String write(File dir, int documents, int wordsPerDocument)
+	throws IOException
+	{
+		dir.mkdirs();
+		File docsFile = new File(dir, "docs.txt");
+		PrintWriter docs = new PrintWriter(new FileWriter(docsFile));
+		try
+		{
+			for (int d = 0; d < documents; d++)
+			{
+				File doc = new File(dir, "doc" + d + ".txt");
+				docs.println(doc.getPath());
+
+				Writer out = new BufferedWriter(new FileWriter(doc), 1 << 16);
+				try
+				{
+					for (int w = 0; w < wordsPerDocument; w++)
+					{
+						String word = nextWord();
+						int r = random.nextInt(20);
+						if (r == 0)
+							word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+						else if (r == 1)
+							word = word + ".,?:;!".charAt(random.nextInt(6));
+						out.write(word);
+						out.write((w % 12 == 11) ? '\n' : ' ');
+					}
+				}
+				finally
+				{
+					out.close();
+				}
+			}
+		}
+		finally
+		{
+			docs.close();
+		}
+		return docsFile.getPath();
+	}
+
+	private String randomWord(int length)
+	{
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++)
+			chars[i] = (char) ('a' + random.nextInt(26));
+		return new String(chars);
+	}
+}
@@ -0,0 +1,101 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Prints the estimated memory footprint of the keywords index in its Occurrence list
+ * layout, its compact posting list layout and its block-compressed layout (the one used
+ * in segment files), along with the time it takes to read every posting of every keyword
+ * in each layout.
+ * 
+ */
+public class FootprintReport {
+
+	/**
+	 * Number of timed passes over all postings, per layout.
+	 */
+	static final int PASSES = 200;
+
+	/**
+	 * @param args Optional documents file and noise words file, default docs.txt and noisewords.txt
+	 */
+	public static void main(String[] args)
+	throws FileNotFoundException {
+		String docsFile = (args.length > 0) ? args[0] : "docs.txt";
+		String noiseWordsFile = (args.length > 1) ? args[1] : "noisewords.txt";
+
+		LittleSearchEngine lse = new LittleSearchEngine();
+		lse.makeIndex(docsFile, noiseWordsFile);
+
+		long postings = 0;
+		for (String key : lse.keywordsIndex.keySet())
+			postings += lse.keywordsIndex.get(key).size();
+
+		CompactIndex compact = lse.compactIndex();
+		long occurrenceBytes = CompactIndex.estimateBytes(lse.keywordsIndex);
+		long compactBytes = compact.estimateBytes();
+
+		// compressed lists share the document table of the compact index
+		DocumentTable docs = compact.documents();
+		HashMap<String,CompressedPostingList> compressed = new HashMap<String,CompressedPostingList>();
+		long compressedBytes = docs.size() * (CompactIndex.REF_BYTES + CompactIndex.ENTRY_BYTES + CompactIndex.align(CompactIndex.OBJECT_BYTES + 4));
+		for (String key : compact.keywords())
+		{
+			CompressedPostingList pl = new CompressedPostingList(compact.get(key), docs);
+			compressed.put(key, pl);
+			compressedBytes += CompactIndex.ENTRY_BYTES + pl.estimateBytes();
+		}
+
+		System.out.println("keywords:  " + lse.keywordsIndex.size());
+		System.out.println("postings:  " + postings);
+		System.out.println("documents: " + compact.documents().size());
+		System.out.println();
+
+		ArrayList<String> keys = new ArrayList<String>(lse.keywordsIndex.keySet());
+		ArrayList<Postings> lists = new ArrayList<Postings>();
+		for (String key : keys)
+			lists.add(new OccurrenceList(lse.keywordsIndex.get(key)));
+		report("ArrayList<Occurrence>", occurrenceBytes, occurrenceBytes, postings, scan(lists));
+
+		lists.clear();
+		for (String key : keys)
+			lists.add(compact.get(key));
+		report("PostingList", compactBytes, occurrenceBytes, postings, scan(lists));
+
+		lists.clear();
+		for (String key : keys)
+			lists.add(compressed.get(key).reader());
+		report("CompressedPostingList", compressedBytes, occurrenceBytes, postings, scan(lists));
+	}
+
+	/**
+	 * Reads the frequency and document of every posting of every list, PASSES times
+	 * after a warm-up, and returns the average time per pass in nanoseconds.
+	 */
+	private static long scan(ArrayList<Postings> lists)
+	{
+		long sum = 0;
+		long start = 0;
+		for (int pass = 0; pass < 2 * PASSES; pass++)
+		{
+			if (pass == PASSES)
+				start = System.nanoTime();
+			for (Postings p : lists)
+			{
+				for (int i = 0; i < p.size(); i++)
+					sum += p.frequency(i) + p.document(i).length();
+			}
+		}
+		long nanos = (System.nanoTime() - start) / PASSES;
+		if (sum == 42)
+			System.out.println();
+		return nanos;
+	}
+
+	private static void report(String layout, long bytes, long baseline, long postings, long scanNanos)
+	{
+		System.out.printf("%-22s %10d bytes  %6.1f bytes/posting  %5.2fx  scan %8.1f us%n", layout,
+			bytes, (double) bytes / Math.max(1, postings), (double) baseline / bytes, scanNanos / 1000.0);
+	}
+}
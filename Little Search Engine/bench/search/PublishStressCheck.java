@@ -0,0 +1,200 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Stress check for publishDocuments. Indexes a generated corpus (see CorpusGenerator),
+ * then publishes batches of new documents on one thread while reader threads run
+ * topKSearch, bm25Search and wildcardSearch against the index without pause. Every new
+ * document has the keyword MARKER in it, a few times, so a reader can tell how many
+ * documents of the batches it sees, and checks that
+ *
+ *   - it sees whole batches only (the number of documents is a multiple of the batch size),
+ *   - it never sees fewer documents than in an earlier search, and
+ *   - the Occurrence list of MARKER in the snapshot it reads is in descending order of
+ *     frequency.
+ *
+ * When all batches are published, the index is compared with one made by makeIndex from
+ * all documents: both must have the same keywords with the same number of occurrences. The
+ * number of searches and of failed checks is printed, and the exit status is 1 if any check
+ * failed.
+ *
+ * Usage: java search.PublishStressCheck [-readers n] [-batches n] [-batch n] [-docs n]
+ *        [-words n] [-vocab n] [-cache n] [-seed n]
+ *
+ */
+public class PublishStressCheck {
+
+	/**
+	 * Keyword put in every published document.
+	 */
+	static final String MARKER = "stressmarker";
+
+	/**
+	 * Number of failed checks.
+	 */
+	static AtomicInteger failures = new AtomicInteger();
+
+	/**
+	 * @param args Options
+	 */
+	public static void main(String[] args)
+	throws Exception {
+		int readers = Benchmarks.intOption(args, "-readers", 4);
+		int batches = Benchmarks.intOption(args, "-batches", 200);
+		final int batch = Benchmarks.intOption(args, "-batch", 3);
+		int docs = Benchmarks.intOption(args, "-docs", 200);
+		int words = Benchmarks.intOption(args, "-words", 500);
+		int vocab = Benchmarks.intOption(args, "-vocab", 20000);
+		int cache = Benchmarks.intOption(args, "-cache", 0);
+		long seed = Long.parseLong(Benchmarks.option(args, "-seed", "42"));
+
+		File dir = new File(System.getProperty("java.io.tmpdir"), "lse-stress-" + seed);
+		CorpusGenerator gen = new CorpusGenerator(vocab, 1.0, seed);
+		String docsFile = gen.write(dir, docs, words);
+		String noiseFile = "noisewords.txt";
+
+		// documents to publish, in batches
+		Random random = new Random(seed);
+		ArrayList<List<String>> published = new ArrayList<List<String>>();
+		for (int b = 0; b < batches; b++)
+		{
+			ArrayList<String> files = new ArrayList<String>();
+			for (int d = 0; d < batch; d++)
+			{
+				File doc = new File(dir, "published" + (b * batch + d) + ".txt");
+				Writer out = new BufferedWriter(new FileWriter(doc));
+				try
+				{
+					int markers = 1 + random.nextInt(5);
+					for (int w = 0; w < words; w++)
+					{
+						out.write((w < markers) ? MARKER : gen.nextWord());
+						out.write((w % 12 == 11) ? '\n' : ' ');
+					}
+				}
+				finally
+				{
+					out.close();
+				}
+				files.add(doc.getPath());
+			}
+			published.add(files);
+		}
+
+		final LittleSearchEngine lse = new LittleSearchEngine();
+		lse.makeIndex(docsFile, noiseFile);
+		if (cache > 0)
+			lse.enableQueryCache(cache);
+		System.out.println("corpus: " + docs + " documents x " + words + " words, " + batches + " batches of "
+			+ batch + ", " + readers + " readers" + ((cache > 0) ? ", cache " + cache : "") + ", in " + dir);
+
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicLong searches = new AtomicLong();
+		final int all = batches * batch;
+		ExecutorService pool = Executors.newFixedThreadPool(readers);
+		ArrayList<Future<?>> running = new ArrayList<Future<?>>();
+		for (int r = 0; r < readers; r++)
+		{
+			final int reader = r;
+			running.add(pool.submit(new Callable<Void>() {
+				public Void call() {
+					List<String> keywords = Collections.singletonList(MARKER);
+					List<String> patterns = Collections.singletonList(MARKER.substring(0, 6) + "*");
+					int seen = 0;
+					while (!done.get())
+					{
+						int found;
+						switch (reader % 3)
+						{
+						case 0:
+							found = lse.topKSearch(keywords, all).size();
+							break;
+						case 1:
+							found = lse.bm25Search(keywords, all).size();
+							break;
+						default:
+							found = lse.wildcardSearch(patterns, all).size();
+						}
+						if ((found % batch != 0) || (found < seen))
+							fail("search saw " + found + " published documents, after " + seen);
+						seen = Math.max(seen, found);
+
+						ArrayList<Occurrence> occs = lse.keywordsIndex.get(MARKER);
+						for (int i = 1; (occs != null) && (i < occs.size()); i++)
+						{
+							if (occs.get(i - 1).frequency < occs.get(i).frequency)
+								fail("occurrences of " + MARKER + " out of order at " + i);
+						}
+						searches.incrementAndGet();
+					}
+					return null;
+				}
+			}));
+		}
+
+		long start = System.nanoTime();
+		try
+		{
+			for (List<String> files : published)
+				lse.publishDocuments(files);
+		}
+		finally
+		{
+			done.set(true);
+			for (Future<?> f : running)
+				f.get();
+			pool.shutdown();
+		}
+		long elapsed = System.nanoTime() - start;
+
+		// the published index must be the one makeIndex builds from all documents
+		File allDocs = new File(dir, "all.txt");
+		PrintWriter out = new PrintWriter(new FileWriter(allDocs));
+		try
+		{
+			Scanner sc = new Scanner(new File(docsFile));
+			while (sc.hasNext())
+				out.println(sc.next());
+			for (List<String> files : published)
+			{
+				for (String file : files)
+					out.println(file);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		LittleSearchEngine expected = new LittleSearchEngine();
+		expected.makeIndex(allDocs.getPath(), noiseFile);
+		if (expected.keywordsIndex.size() != lse.keywordsIndex.size())
+			fail(lse.keywordsIndex.size() + " keywords published, expected " + expected.keywordsIndex.size());
+		for (String key : expected.keywordsIndex.keySet())
+		{
+			ArrayList<Occurrence> occs = lse.keywordsIndex.get(key);
+			int size = (occs == null) ? 0 : occs.size();
+			if (size != expected.keywordsIndex.get(key).size())
+				fail(key + " has " + size + " occurrences, expected " + expected.keywordsIndex.get(key).size());
+		}
+		if (lse.topKSearch(Collections.singletonList(MARKER), all + 1).size() != all)
+			fail("not all published documents are found");
+
+		System.out.printf("%d batches published in %.1f ms, %d searches, %d failed checks%n",
+			batches, elapsed / 1e6, searches.get(), failures.get());
+		if (failures.get() > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * Reports a failed check. Only the first few are printed.
+	 */
+	static void fail(String message)
+	{
+		if (failures.incrementAndGet() <= 10)
+			System.out.println("FAILED: " + message);
+	}
+}
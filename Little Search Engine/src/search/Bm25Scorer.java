@@ -0,0 +1,644 @@
+package search;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Ranks documents by their BM25 score for a set of keywords. The score of a document is
+ * the sum, over the keywords of the query, of
+ *
+ *     idf * tf * (K1 + 1) / (tf + norm)
+ *
+ * where tf is the frequency of the keyword in the document, idf is computed from the number
+ * of documents the keyword occurs in, and norm = K1 * (1 - B + B * length / average length)
+ * grows with the length (number of keywords) of the document, so long documents no longer
+ * win on raw frequency alone.
+ *
+ * The collection statistics (number of documents and average length) are taken when the
+ * scorer is built, which is at the end of makeIndex, and the norm of every document is
+ * computed from them when the document is added. The impact of a keyword in a document,
+ * tf * (K1 + 1) / (tf + norm), then never changes, so the scorer keeps the postings of
+ * every keyword in descending order of impact, along with a copy in document id order
+ * for looking up the impact in a given document, and documents that are added to or
+ * removed from the index only change the lists of their own keywords. The statistics
+ * drift as documents come and go, and the engine builds a new scorer once more than
+ * 1/REFRESH of the documents have changed. The idf of a keyword is computed at query time,
+ * from the current size of its postings, and is a constant factor of its impacts.
+ *
+ * Each list is tagged with the Occurrence list it was built from, so a search against a
+ * snapshot of the keywords index that is no longer current (while publishDocuments runs)
+ * can tell which lists do not belong to it, and builds those from its own snapshot.
+ *
+ * The next impact in each list is an exact bound on the score of the keyword in any
+ * document not yet read from that list. Postings are read from the keyword with the
+ * highest bound, and every new document found is scored in full by looking up its score
+ * in the other lists. The search stops as soon as the k-th best score is more than the sum
+ * of the bounds, since no document not yet seen can beat it, so a single keyword query
+ * reads only k postings.
+ *
+ */
+class Bm25Scorer {
+
+	/**
+	 * Term frequency saturation.
+	 */
+	static final double K1 = 1.2;
+
+	/**
+	 * Document length normalization, 0 for none and 1 for full.
+	 */
+	static final double B = 0.75;
+
+	/**
+	 * A new scorer is built once the number of documents added or removed is more than
+	 * 1/REFRESH of the number of documents the statistics were taken from.
+	 */
+	static final int REFRESH = 8;
+
+	/**
+	 * Number of documents when the statistics were taken.
+	 */
+	private final int documentCount;
+
+	/**
+	 * Average document length when the statistics were taken.
+	 */
+	private final double average;
+
+	/**
+	 * Id of every document, by name.
+	 */
+	private ConcurrentHashMap<String,Integer> ids;
+
+	/**
+	 * Document names, indexed by document id. Replaced, not changed, when it grows, so a
+	 * search sees every id that is in the lists of its snapshot.
+	 */
+	private volatile String[] names;
+
+	/**
+	 * Length norm of every document, indexed by document id. Replaced, not changed, when
+	 * it grows.
+	 */
+	private volatile double[] norms;
+
+	/**
+	 * Number of ids given out.
+	 */
+	private int size;
+
+	/**
+	 * Number of documents added or removed since the statistics were taken.
+	 */
+	private int changes;
+
+	/**
+	 * Postings of every keyword, in descending order of impact.
+	 */
+	private ConcurrentHashMap<String,ImpactList> impacts;
+
+	/**
+	 * Initializes a scorer with the statistics of a set of documents. The postings of the
+	 * keywords are added with build.
+	 *
+	 * @param lengths Length (total keyword frequency) of every document in the index
+	 */
+	public Bm25Scorer(Map<String,Integer> lengths) {
+		long total = 0;
+		for (Integer length : lengths.values())
+			total += length;
+		documentCount = lengths.size();
+		average = (documentCount == 0) ? 1 : Math.max(1.0, (double) total / documentCount);
+
+		ids = new ConcurrentHashMap<String,Integer>(2 * documentCount);
+		names = new String[Math.max(16, documentCount)];
+		norms = new double[names.length];
+		for (Map.Entry<String,Integer> e : lengths.entrySet())
+			add(e.getKey(), e.getValue());
+		changes = 0;
+		impacts = new ConcurrentHashMap<String,ImpactList>();
+	}
+
+	/**
+	 * Builds the lists of all keywords of an index.
+	 *
+	 * @param index Keywords index
+	 * @param segment Segment under the keywords index, null if none
+	 */
+	void build(Map<String,ArrayList<Occurrence>> index, IndexSegment segment)
+	{
+		for (Map.Entry<String,ArrayList<Occurrence>> e : index.entrySet())
+			impacts.put(e.getKey(), list(e.getValue(), new OccurrenceList(e.getValue())));
+		if (segment != null)
+		{
+			for (String key : segment.keywords())
+			{
+				if (!index.containsKey(key))
+					impacts.put(key, list(segment, segment.get(key)));
+			}
+		}
+	}
+
+	/**
+	 * Adds a document, or sets the length of a document that was added before. Its norm
+	 * is computed with the statistics of this scorer.
+	 *
+	 * @param document Document name
+	 * @param length Length of the document
+	 */
+	void add(String document, int length)
+	{
+		Integer id = ids.get(document);
+		if (id == null)
+		{
+			if (size == names.length)
+			{
+				String[] grownNames = Arrays.copyOf(names, 2 * size);
+				double[] grownNorms = Arrays.copyOf(norms, 2 * size);
+				names = grownNames;
+				norms = grownNorms;
+			}
+			id = size++;
+			names[id] = document;
+			ids.put(document, id);
+		}
+		norms[id] = K1 * (1 - B + B * length / average);
+		changes++;
+	}
+
+	/**
+	 * Counts a document as removed. Its occurrences are removed from the lists with removed.
+	 *
+	 * @param document Document name
+	 */
+	void remove(String document)
+	{
+		changes++;
+	}
+
+	/**
+	 * Tells if so many documents have been added or removed since the statistics were
+	 * taken that a new scorer should be built.
+	 *
+	 * @return True if the statistics are out of date
+	 */
+	boolean isStale()
+	{
+		return (long) changes * REFRESH > documentCount;
+	}
+
+	/**
+	 * Adds an occurrence that has been inserted in the Occurrence list of a keyword, in
+	 * place. The occurrence's document must have been added to the scorer.
+	 *
+	 * @param keyword Keyword
+	 * @param occs Occurrence list of the keyword in the keywords index, with the occurrence
+	 * @param oc Occurrence
+	 */
+	void added(String keyword, ArrayList<Occurrence> occs, Occurrence oc)
+	{
+		ImpactList list = impacts.get(keyword);
+		if ((list == null) || (list.source != occs))
+			impacts.put(keyword, list(occs, new OccurrenceList(occs)));
+		else
+			insert(list, oc);
+	}
+
+	/**
+	 * Removes the occurrence of a document that has been removed from the Occurrence list
+	 * of a keyword, in place.
+	 *
+	 * @param keyword Keyword
+	 * @param occs Occurrence list of the keyword, null if it was removed from the index
+	 * @param document Document name
+	 */
+	void removed(String keyword, ArrayList<Occurrence> occs, String document)
+	{
+		ImpactList list = impacts.get(keyword);
+		if (occs == null)
+			impacts.remove(keyword);
+		else if ((list == null) || (list.source != occs))
+			impacts.put(keyword, list(occs, new OccurrenceList(occs)));
+		else
+		{
+			Integer id = ids.get(document);
+			if (id != null)
+				list.remove(id);
+		}
+	}
+
+	/**
+	 * Replaces the list of a keyword whose Occurrence list has been copied, with new
+	 * occurrences inserted in the copy, leaving the current list as it is for searches
+	 * against the old snapshot. The documents of the new occurrences must have been added.
+	 *
+	 * @param keyword Keyword
+	 * @param oldSource Occurrence list (or segment) the keyword had in the old snapshot
+	 * @param occs New Occurrence list of the keyword
+	 * @param added New occurrences in occs
+	 */
+	void copied(String keyword, Object oldSource, ArrayList<Occurrence> occs, List<Occurrence> added)
+	{
+		ImpactList list = impacts.get(keyword);
+		if ((list == null) || (list.source != oldSource))
+			list = list(occs, new OccurrenceList(occs));
+		else
+		{
+			list = list.copy(occs);
+			for (Occurrence oc : added)
+				insert(list, oc);
+		}
+		impacts.put(keyword, list);
+	}
+
+	/**
+	 * Returns the top k documents for a set of keywords.
+	 *
+	 * @param index Snapshot of the keywords index to search
+	 * @param segment Segment under the keywords index, null if none
+	 * @param query Keywords, duplicates are ignored
+	 * @param k Maximum number of documents in the result
+	 * @return Names of the top k documents in which any of the keywords occurs, in descending
+	 *         order of score (ties in alphabetical order of names)
+	 */
+	public ArrayList<String> search(Map<String,ArrayList<Occurrence>> index, IndexSegment segment, List<String> query, int k)
+	{
+		ArrayList<String> results = new ArrayList<String>();
+		if (k <= 0)
+			return results;
+
+		ArrayList<Term> terms = new ArrayList<Term>();
+		HashSet<String> distinct = new HashSet<String>();
+		for (String keyword : query)
+		{
+			if ((keyword == null) || !distinct.add(keyword))
+				continue;
+			ImpactList list = impacts(index, segment, keyword);
+			if ((list != null) && (list.size > 0))
+				terms.add(new Term(list, idf(list.size)));
+		}
+
+		// read after the lists, so every id in them has a name
+		String[] names = this.names;
+
+		// min-heap of the best k documents found so far
+		PriorityQueue<Hit> best = new PriorityQueue<Hit>(k);
+		IdSet seen = new IdSet();
+		while (true)
+		{
+			Term next = null;
+			double threshold = 0;
+			for (Term t : terms)
+			{
+				if (t.pos == t.list.size)
+					continue;
+				threshold += t.bound();
+				if ((next == null) || (t.bound() > next.bound()))
+					next = t;
+			}
+			if ((next == null) || ((best.size() == k) && (best.peek().score > threshold)))
+				break;
+
+			int id = next.list.docs[next.pos++];
+			if (!seen.add(id))
+				continue;
+
+			Hit hit = new Hit(names[id], score(terms, id));
+			if (best.size() < k)
+				best.add(hit);
+			else if (best.peek().compareTo(hit) < 0)
+			{
+				best.poll();
+				best.add(hit);
+			}
+		}
+
+		while (!best.isEmpty())
+			results.add(best.poll().document);
+		Collections.reverse(results);
+		return results;
+	}
+
+	/**
+	 * Scores a document on all query keywords, in the order of terms, so that the sum is
+	 * computed the same way as the bound it is compared with.
+	 */
+	private static double score(ArrayList<Term> terms, int id)
+	{
+		double score = 0;
+		for (Term t : terms)
+			score += t.idf * t.list.impact(id);
+		return score;
+	}
+
+	private double idf(int n)
+	{
+		// the statistics may be older than the list
+		int documents = Math.max(documentCount, n);
+		return Math.log(1 + (documents - n + 0.5) / (n + 0.5));
+	}
+
+	private static double impact(int tf, double norm)
+	{
+		return tf * (K1 + 1) / (tf + norm);
+	}
+
+	/**
+	 * Returns the list of a keyword for a snapshot of the keywords index, null if the
+	 * keyword is not in it. The stored list is used if it was built from the snapshot's
+	 * postings, otherwise a list is built for this search only.
+	 */
+	private ImpactList impacts(Map<String,ArrayList<Occurrence>> index, IndexSegment segment, String keyword)
+	{
+		ArrayList<Occurrence> occs = index.get(keyword);
+		Object source = (occs != null) ? occs : segment;
+		if (source == null)
+			return null;
+
+		ImpactList list = impacts.get(keyword);
+		if ((list != null) && (list.source == source))
+			return list;
+
+		Postings p = (occs != null) ? new OccurrenceList(occs) : segment.get(keyword);
+		return (p == null) ? null : list(source, p);
+	}
+
+	/**
+	 * Builds the list of a keyword from its postings.
+	 */
+	private ImpactList list(Object source, Postings p)
+	{
+		double[] norms = this.norms;
+		int n = p.size();
+		ImpactList list = new ImpactList(source, n);
+		for (int i = 0; i < n; i++)
+		{
+			// documents not in the scorer are left out
+			Integer id = ids.get(p.document(i));
+			if (id != null)
+			{
+				list.docs[list.size] = id;
+				list.impacts[list.size++] = impact(p.frequency(i), norms[id]);
+			}
+		}
+		list.sortByImpact();
+		list.sortByDocument();
+		return list;
+	}
+
+	private void insert(ImpactList list, Occurrence oc)
+	{
+		Integer id = ids.get(oc.document);
+		if (id != null)
+			list.insert(id, impact(oc.frequency, norms[id]));
+	}
+
+	/**
+	 * Postings of a keyword with the impact of the keyword in each document, in descending
+	 * order of impact (ties in increasing order of document id), and again in increasing
+	 * order of document id.
+	 */
+	static class ImpactList {
+		Object source;
+		int[] docs;
+		double[] impacts;
+		int size;
+		int[] sortedDocs;
+		double[] sortedImpacts;
+
+		ImpactList(Object source, int capacity) {
+			this.source = source;
+			docs = new int[capacity];
+			impacts = new double[capacity];
+		}
+
+		/**
+		 * Returns a copy of this list, tagged with another source.
+		 */
+		ImpactList copy(Object source) {
+			ImpactList list = new ImpactList(source, 0);
+			list.docs = Arrays.copyOf(docs, size + 1);
+			list.impacts = Arrays.copyOf(impacts, size + 1);
+			list.sortedDocs = Arrays.copyOf(sortedDocs, size + 1);
+			list.sortedImpacts = Arrays.copyOf(sortedImpacts, size + 1);
+			list.size = size;
+			return list;
+		}
+
+		/**
+		 * Returns the impact of the keyword in a document, 0 if it does not occur in it.
+		 */
+		double impact(int doc) {
+			int i = Arrays.binarySearch(sortedDocs, 0, size, doc);
+			return (i < 0) ? 0 : sortedImpacts[i];
+		}
+
+		void insert(int doc, double impact) {
+			if (size == docs.length)
+			{
+				int capacity = Math.max(4, 2 * size);
+				docs = Arrays.copyOf(docs, capacity);
+				impacts = Arrays.copyOf(impacts, capacity);
+				sortedDocs = Arrays.copyOf(sortedDocs, capacity);
+				sortedImpacts = Arrays.copyOf(sortedImpacts, capacity);
+			}
+
+			int i = position(doc, impact);
+			System.arraycopy(docs, i, docs, i + 1, size - i);
+			System.arraycopy(impacts, i, impacts, i + 1, size - i);
+			docs[i] = doc;
+			impacts[i] = impact;
+
+			// after any postings of the same document
+			int low = 0;
+			int high = size;
+			while (low < high)
+			{
+				int mid = (low + high) >>> 1;
+				if (sortedDocs[mid] <= doc)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			System.arraycopy(sortedDocs, low, sortedDocs, low + 1, size - low);
+			System.arraycopy(sortedImpacts, low, sortedImpacts, low + 1, size - low);
+			sortedDocs[low] = doc;
+			sortedImpacts[low] = impact;
+			size++;
+		}
+
+		void remove(int doc) {
+			int j = Arrays.binarySearch(sortedDocs, 0, size, doc);
+			if (j < 0)
+				return;
+			double impact = sortedImpacts[j];
+			System.arraycopy(sortedDocs, j + 1, sortedDocs, j, size - j - 1);
+			System.arraycopy(sortedImpacts, j + 1, sortedImpacts, j, size - j - 1);
+
+			int i = position(doc, impact);
+			System.arraycopy(docs, i + 1, docs, i, size - i - 1);
+			System.arraycopy(impacts, i + 1, impacts, i, size - i - 1);
+			size--;
+		}
+
+		/**
+		 * Returns the position of the first posting that does not come before (doc, impact)
+		 * in impact order.
+		 */
+		private int position(int doc, double impact) {
+			int low = 0;
+			int high = size;
+			while (low < high)
+			{
+				int mid = (low + high) >>> 1;
+				if ((impacts[mid] > impact) || ((impacts[mid] == impact) && (docs[mid] < doc)))
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+
+		/**
+		 * Sorts the postings in impact order, with a merge sort of the parallel arrays.
+		 */
+		void sortByImpact() {
+			int[] fromDocs = docs;
+			double[] fromImpacts = impacts;
+			int[] toDocs = new int[size];
+			double[] toImpacts = new double[size];
+			for (int width = 1; width < size; width *= 2)
+			{
+				for (int low = 0; low < size; low += 2 * width)
+				{
+					int mid = Math.min(low + width, size);
+					int high = Math.min(low + 2 * width, size);
+					int i = low;
+					int j = mid;
+					for (int out = low; out < high; out++)
+					{
+						if ((j == high) || ((i < mid) && ((fromImpacts[i] > fromImpacts[j])
+							|| ((fromImpacts[i] == fromImpacts[j]) && (fromDocs[i] <= fromDocs[j])))))
+						{
+							toDocs[out] = fromDocs[i];
+							toImpacts[out] = fromImpacts[i++];
+						}
+						else
+						{
+							toDocs[out] = fromDocs[j];
+							toImpacts[out] = fromImpacts[j++];
+						}
+					}
+				}
+				int[] d = fromDocs;
+				fromDocs = toDocs;
+				toDocs = d;
+				double[] s = fromImpacts;
+				fromImpacts = toImpacts;
+				toImpacts = s;
+			}
+			docs = fromDocs;
+			impacts = fromImpacts;
+		}
+
+		void sortByDocument() {
+			long[] packed = new long[size];
+			for (int i = 0; i < size; i++)
+				packed[i] = ((long) docs[i] << 32) | i;
+			Arrays.sort(packed);
+
+			sortedDocs = new int[docs.length];
+			sortedImpacts = new double[docs.length];
+			for (int i = 0; i < size; i++)
+			{
+				sortedDocs[i] = (int) (packed[i] >>> 32);
+				sortedImpacts[i] = impacts[(int) packed[i]];
+			}
+		}
+	}
+
+	/**
+	 * A query keyword, with its idf and its position in its postings.
+	 */
+	private static class Term {
+		ImpactList list;
+		double idf;
+		int pos;
+
+		Term(ImpactList list, double idf) {
+			this.list = list;
+			this.idf = idf;
+		}
+
+		/**
+		 * Returns the score of the keyword in the next document of its postings.
+		 */
+		double bound() {
+			return idf * list.impacts[pos];
+		}
+	}
+
+	/**
+	 * Set of document ids seen by a search, in an open-addressing hash table that grows with
+	 * the number of postings read rather than with the number of documents.
+	 */
+	private static class IdSet {
+		int[] table = new int[64];
+		int size;
+
+		/**
+		 * Adds an id, returns false if it was already in the set.
+		 */
+		boolean add(int id) {
+			if (2 * (size + 1) > table.length)
+			{
+				int[] old = table;
+				table = new int[2 * old.length];
+				for (int stored : old)
+				{
+					if (stored != 0)
+						put(stored);
+				}
+			}
+			// ids are stored plus one, so that 0 is an empty slot
+			if (!put(id + 1))
+				return false;
+			size++;
+			return true;
+		}
+
+		private boolean put(int stored) {
+			int mask = table.length - 1;
+			int h = stored * 0x9E3779B9;
+			int i = (h ^ (h >>> 16)) & mask;
+			while (table[i] != 0)
+			{
+				if (table[i] == stored)
+					return false;
+				i = (i + 1) & mask;
+			}
+			table[i] = stored;
+			return true;
+		}
+	}
+
+	/**
+	 * A scored document. Hits are ordered by increasing score, then by decreasing name, so
+	 * the head of a min-heap of hits is the one to drop first.
+	 */
+	private static class Hit implements Comparable<Hit> {
+		String document;
+		double score;
+
+		Hit(String document, double score) {
+			this.document = document;
+			this.score = score;
+		}
+
+		public int compareTo(Hit other) {
+			if (score != other.score)
+				return (score < other.score) ? -1 : 1;
+			return other.document.compareTo(document);
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Parsed boolean keyword query. The grammar is
+ * <pre>
+ *   query   := and ("OR" and)*
+ *   and     := not (["AND"] not)*
+ *   not     := "NOT" not | "(" query ")" | keyword
+ * </pre>
+ * so AND binds tighter than OR, and keywords written next to each other are ANDed.
+ * Operators must be in upper case. A NOT may only appear as part of an AND with at least
+ * one other (non-NOT) operand, as in "alice AND NOT rabbit". Keywords are kept as they are
+ * written, and turned into keywords with normalize.
+ * 
+ */
+class BooleanQuery {
+
+	/**
+	 * Kinds of query nodes.
+	 */
+	static final int TERM = 0, AND = 1, OR = 2, NOT = 3;
+
+	/**
+	 * Kind of this node.
+	 */
+	int kind;
+
+	/**
+	 * Keyword, if this is a TERM node.
+	 */
+	String keyword;
+
+	/**
+	 * Operands, if this is an AND, OR or NOT node.
+	 */
+	ArrayList<BooleanQuery> operands;
+
+	private BooleanQuery(int kind, String keyword) {
+		this.kind = kind;
+		this.keyword = keyword;
+		operands = new ArrayList<BooleanQuery>();
+	}
+
+	/**
+	 * Parses a query.
+	 * 
+	 * @param query Query text
+	 * @return Root of the parsed query
+	 * @throws IllegalArgumentException If the query is not well formed
+	 */
+	public static BooleanQuery parse(String query)
+	{
+		ArrayList<String> tokens = new ArrayList<String>();
+		StringTokenizer st = new StringTokenizer(query, " \t\n\r\f()", true);
+		while (st.hasMoreTokens())
+		{
+			String token = st.nextToken();
+			if (token.trim().length() > 0)
+				tokens.add(token);
+		}
+
+		Parser p = new Parser(tokens);
+		BooleanQuery q = p.query();
+		if (p.pos < tokens.size())
+			throw new IllegalArgumentException("unexpected '" + tokens.get(p.pos) + "' in query");
+		q.check(false);
+		return q;
+	}
+
+	private void check(boolean inAnd)
+	{
+		if (kind == NOT && !inAnd)
+			throw new IllegalArgumentException("NOT must be ANDed with a keyword");
+
+		if (kind == AND)
+		{
+			boolean positive = false;
+			for (BooleanQuery op : operands)
+				positive |= (op.kind != NOT);
+			if (!positive)
+				throw new IllegalArgumentException("NOT must be ANDed with a keyword");
+		}
+
+		for (BooleanQuery op : operands)
+			op.check(kind == AND);
+	}
+
+	/**
+	 * Turns every word of the query into a keyword with getKeyWord, as topKSearch does, so
+	 * that "Alice." stands for "alice". Words that are not keywords (noise words, and words
+	 * with characters other than letters and trailing punctuation) are dropped, along with
+	 * a NOT of them. An AND or OR left with a single operand is replaced by it.
+	 * 
+	 * @param engine Engine whose keyword rules and noise words are used
+	 * @return Normalized query, null if no keyword is left, or if an AND is left with only
+	 *         NOT operands, in which case the query matches no documents
+	 */
+	BooleanQuery normalize(LittleSearchEngine engine)
+	{
+		if (kind == TERM)
+		{
+			String key = engine.getKeyWord(keyword);
+			return (key == null) ? null : new BooleanQuery(TERM, key);
+		}
+
+		BooleanQuery q = new BooleanQuery(kind, null);
+		boolean positive = false;
+		for (BooleanQuery op : operands)
+		{
+			BooleanQuery n = op.normalize(engine);
+			if (n != null)
+			{
+				q.operands.add(n);
+				positive |= (n.kind != NOT);
+			}
+		}
+		if (q.operands.isEmpty() || ((kind == AND) && !positive))
+			return null;
+		return ((q.operands.size() == 1) && (kind != NOT)) ? q.operands.get(0) : q;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		if (kind == TERM)
+			return keyword;
+		if (kind == NOT)
+			return "NOT " + operands.get(0);
+
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < operands.size(); i++)
+		{
+			if (i > 0)
+				sb.append(kind == AND ? " AND " : " OR ");
+			sb.append(operands.get(i));
+		}
+		return sb.append(")").toString();
+	}
+
+	/**
+	 * Recursive descent parser over the tokens of a query.
+	 */
+	private static class Parser {
+		ArrayList<String> tokens;
+		int pos;
+
+		Parser(ArrayList<String> tokens) {
+			this.tokens = tokens;
+		}
+
+		BooleanQuery query() {
+			BooleanQuery first = and();
+			if (!peek("OR"))
+				return first;
+
+			BooleanQuery or = new BooleanQuery(OR, null);
+			or.operands.add(first);
+			while (peek("OR"))
+			{
+				pos++;
+				or.operands.add(and());
+			}
+			return or;
+		}
+
+		BooleanQuery and() {
+			BooleanQuery first = not();
+			BooleanQuery and = null;
+			while ((pos < tokens.size()) && !peek("OR") && !peek(")"))
+			{
+				if (peek("AND"))
+					pos++;
+				if (and == null)
+				{
+					and = new BooleanQuery(AND, null);
+					and.operands.add(first);
+				}
+				and.operands.add(not());
+			}
+			return (and == null) ? first : and;
+		}
+
+		BooleanQuery not() {
+			if (pos == tokens.size())
+				throw new IllegalArgumentException("query ends unexpectedly");
+
+			String token = tokens.get(pos++);
+			if (token.equals("NOT"))
+			{
+				BooleanQuery not = new BooleanQuery(NOT, null);
+				not.operands.add(not());
+				return not;
+			}
+			if (token.equals("("))
+			{
+				BooleanQuery q = query();
+				if (!peek(")"))
+					throw new IllegalArgumentException("missing ')' in query");
+				pos++;
+				return q;
+			}
+			if (token.equals(")") || token.equals("AND") || token.equals("OR"))
+				throw new IllegalArgumentException("unexpected '" + token + "' in query");
+			return new BooleanQuery(TERM, token);
+		}
+
+		boolean peek(String token) {
+			return (pos < tokens.size()) && tokens.get(pos).equals(token);
+		}
+	}
+}
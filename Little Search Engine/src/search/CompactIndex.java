@@ -0,0 +1,137 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Compact, read-only form of the keywords index. Document names are interned once into a
+ * DocumentTable, and each keyword maps to a PostingList of parallel document id and
+ * frequency arrays, in the same descending order of frequency as the Occurrence lists
+ * it was built from.
+ * 
+ * This is a snapshot, not the live index: keywordsIndex stays a table of Occurrence
+ * lists, since that is the form loadKeyWords, mergeKeyWords and insertLastOccurrence
+ * work on. A compact index is built to write a segment file with saveIndex, and by
+ * FootprintReport to compare layouts. The compact form that is searched is the segment
+ * file itself, once loaded with loadIndex.
+ * 
+ */
+class CompactIndex {
+
+	/**
+	 * Estimated size of an object header, assuming a 64-bit VM with compressed references.
+	 */
+	static final int OBJECT_BYTES = 12;
+
+	/**
+	 * Estimated size of a reference, assuming a 64-bit VM with compressed references.
+	 */
+	static final int REF_BYTES = 4;
+
+	/**
+	 * Estimated size of a hash table entry (header, hash, key, value and next references).
+	 */
+	static final int ENTRY_BYTES = 32;
+
+	/**
+	 * Document names, interned to ids.
+	 */
+	private DocumentTable docs;
+
+	/**
+	 * Posting list for every keyword.
+	 */
+	private HashMap<String,PostingList> postings;
+
+	/**
+	 * Builds the compact form of a keywords index.
+	 * 
+	 * @param keywordsIndex Keywords index, each keyword mapped to its Occurrence list
+	 */
+	public CompactIndex(Map<String,ArrayList<Occurrence>> keywordsIndex) {
+		docs = new DocumentTable();
+		postings = new HashMap<String,PostingList>(keywordsIndex.size() * 2);
+		for (String key : keywordsIndex.keySet())
+			postings.put(key, new PostingList(keywordsIndex.get(key), docs));
+	}
+
+	/**
+	 * Returns the posting list of a keyword.
+	 * 
+	 * @param keyword Keyword
+	 * @return Posting list, null if the keyword is not in the index
+	 */
+	public PostingList get(String keyword)
+	{
+		return postings.get(keyword);
+	}
+
+	/**
+	 * Returns all keywords in the index.
+	 * 
+	 * @return Set of keywords
+	 */
+	public Set<String> keywords()
+	{
+		return postings.keySet();
+	}
+
+	/**
+	 * Returns the table of documents of this index.
+	 * 
+	 * @return Document table
+	 */
+	public DocumentTable documents()
+	{
+		return docs;
+	}
+
+	/**
+	 * Returns an estimate of the heap space taken by the posting lists and the document
+	 * table of this index, in bytes. Keyword strings are not counted, since they are
+	 * shared with the original index.
+	 * 
+	 * @return Estimated size in bytes
+	 */
+	public long estimateBytes()
+	{
+		long bytes = 0;
+		for (PostingList pl : postings.values())
+			bytes += ENTRY_BYTES + pl.estimateBytes();
+
+		// document table: one name reference and one boxed id per document
+		bytes += docs.size() * (REF_BYTES + ENTRY_BYTES + align(OBJECT_BYTES + 4));
+		return bytes;
+	}
+
+	/**
+	 * Returns an estimate of the heap space taken by the Occurrence lists of a keywords
+	 * index, in bytes, using the same assumptions as estimateBytes(). Array lists are
+	 * counted at their size rather than their capacity, so this is a lower bound.
+	 * 
+	 * @param keywordsIndex Keywords index
+	 * @return Estimated size in bytes
+	 */
+	public static long estimateBytes(Map<String,ArrayList<Occurrence>> keywordsIndex)
+	{
+		long occurrence = align(OBJECT_BYTES + REF_BYTES + 4);
+		long bytes = 0;
+		for (ArrayList<Occurrence> occs : keywordsIndex.values())
+		{
+			bytes += ENTRY_BYTES;
+			bytes += align(OBJECT_BYTES + 4 + 4 + REF_BYTES);
+			bytes += align(OBJECT_BYTES + 4 + (long) REF_BYTES * occs.size());
+			bytes += occurrence * occs.size();
+		}
+		return bytes;
+	}
+
+	static long intArrayBytes(int length)
+	{
+		return align(OBJECT_BYTES + 4 + 4L * length);
+	}
+
+	static long align(long bytes)
+	{
+		return (bytes + 7) & ~7L;
+	}
+}
@@ -0,0 +1,280 @@
+package search;
+
+import java.nio.*;
+
+/**
+ * Block-compressed posting list for a single keyword. Postings are kept in descending
+ * order of frequency and cut into blocks of BLOCK_SIZE postings. Within a block, the first
+ * posting is stored as a document id and a frequency, and each following posting as the
+ * drop in frequency from the previous posting and the (zig-zag encoded) difference from the
+ * previous document id, all as variable-byte integers. Since frequencies are non-increasing,
+ * the drops are small, and so are most document id differences.
+ * 
+ * An encoded list is laid out as follows (all ints are big-endian):
+ * <pre>
+ *   int size
+ *   int[blockCount] skip pointers, the byte offset of each block from the first block
+ *   encoded blocks
+ * </pre>
+ * Skip pointers let a reader go straight to the block of any posting. This is the form in
+ * which postings are stored in a segment file, and a list is read in place from the buffer
+ * it was encoded into, which may be a mapped file. The list itself is immutable and can be
+ * shared between threads; decoding is done by a Reader, which holds the one block it has
+ * decoded.
+ * 
+ */
+class CompressedPostingList {
+
+	/**
+	 * Number of postings per block.
+	 */
+	static final int BLOCK_SIZE = 128;
+
+	/**
+	 * Table through which document ids are resolved to names.
+	 */
+	private DocumentTable docs;
+
+	/**
+	 * Buffer holding the encoded list.
+	 */
+	private ByteBuffer buf;
+
+	/**
+	 * Position of the skip pointers in buf.
+	 */
+	private int skips;
+
+	/**
+	 * Position of the first block in buf.
+	 */
+	private int blocks;
+
+	/**
+	 * Number of postings.
+	 */
+	private int size;
+
+	/**
+	 * Compresses a posting list into a buffer of its own.
+	 * 
+	 * @param postings Posting list, in descending order of frequency
+	 * @param docs Document table of the posting list
+	 */
+	public CompressedPostingList(PostingList postings, DocumentTable docs) {
+		this(ByteBuffer.wrap(encode(postings)), 0, docs);
+	}
+
+	/**
+	 * Reads an encoded list in place.
+	 * 
+	 * @param buf Buffer holding the list
+	 * @param start Position of the list in buf
+	 * @param docs Table through which the document ids of the list are resolved
+	 */
+	CompressedPostingList(ByteBuffer buf, int start, DocumentTable docs) {
+		this.buf = buf;
+		this.docs = docs;
+		size = buf.getInt(start);
+		skips = start + 4;
+		blocks = skips + 4 * ((size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+	}
+
+	/**
+	 * Encodes a posting list.
+	 * 
+	 * @param postings Posting list, in descending order of frequency
+	 * @return Encoded list
+	 */
+	static byte[] encode(PostingList postings)
+	{
+		int size = postings.size();
+		int blockCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int header = 4 + 4 * blockCount;
+
+		byte[] out = new byte[header + Math.max(16, 2 * size)];
+		int len = header;
+		putInt(out, 0, size);
+		for (int i = 0; i < size; i++)
+		{
+			if (out.length - len < 10)
+			{
+				byte[] grown = new byte[2 * out.length];
+				System.arraycopy(out, 0, grown, 0, len);
+				out = grown;
+			}
+
+			int docId = postings.docId(i);
+			int freq = postings.frequency(i);
+			if (i % BLOCK_SIZE == 0)
+			{
+				putInt(out, 4 + 4 * (i / BLOCK_SIZE), len - header);
+				len = writeVInt(out, len, docId);
+				len = writeVInt(out, len, freq);
+			}
+			else
+			{
+				int delta = docId - postings.docId(i - 1);
+				len = writeVInt(out, len, postings.frequency(i - 1) - freq);
+				len = writeVInt(out, len, (delta << 1) ^ (delta >> 31));
+			}
+		}
+
+		byte[] encoded = new byte[len];
+		System.arraycopy(out, 0, encoded, 0, len);
+		return encoded;
+	}
+
+	/**
+	 * Returns the number of postings.
+	 * 
+	 * @return Number of postings
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns a new reader over this list.
+	 * 
+	 * @return Reader, positioned on no block
+	 */
+	public Reader reader()
+	{
+		return new Reader();
+	}
+
+	/**
+	 * Returns an estimate of the heap space taken by this list when it is held in a buffer
+	 * of its own, in bytes.
+	 * 
+	 * @return Estimated size in bytes
+	 */
+	public long estimateBytes()
+	{
+		// this list, the buffer object (its int fields, address and references) and its array
+		return CompactIndex.align(CompactIndex.OBJECT_BYTES + 4 * 4 + 2 * CompactIndex.REF_BYTES)
+			+ CompactIndex.align(CompactIndex.OBJECT_BYTES + 6 * 4 + 8 + 3 * CompactIndex.REF_BYTES)
+			+ CompactIndex.align(CompactIndex.OBJECT_BYTES + 4 + buf.capacity());
+	}
+
+	private static void putInt(byte[] out, int pos, int value)
+	{
+		out[pos] = (byte) (value >>> 24);
+		out[pos + 1] = (byte) (value >>> 16);
+		out[pos + 2] = (byte) (value >>> 8);
+		out[pos + 3] = (byte) value;
+	}
+
+	private static int writeVInt(byte[] out, int len, int value)
+	{
+		while ((value & ~0x7f) != 0)
+		{
+			out[len++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out[len++] = (byte) value;
+		return len;
+	}
+
+	/**
+	 * Postings view of a compressed list, which decodes a block the first time one of its
+	 * postings is asked for. A reader is not thread-safe, but any number of readers can be
+	 * used on the same list at the same time.
+	 */
+	class Reader implements Postings {
+
+		/**
+		 * Index of the decoded block, -1 if none.
+		 */
+		private int block = -1;
+
+		/**
+		 * Document ids of the decoded block.
+		 */
+		private int[] blockDocs = new int[Math.min(BLOCK_SIZE, size)];
+
+		/**
+		 * Frequencies of the decoded block.
+		 */
+		private int[] blockFreqs = new int[Math.min(BLOCK_SIZE, size)];
+
+		public int size()
+		{
+			return size;
+		}
+
+		/**
+		 * Returns the document id of the i-th posting.
+		 * 
+		 * @param i Index of posting, 0..size()-1
+		 * @return Document id
+		 */
+		public int docId(int i)
+		{
+			decode(i / BLOCK_SIZE);
+			return blockDocs[i % BLOCK_SIZE];
+		}
+
+		public String document(int i)
+		{
+			return docs.name(docId(i));
+		}
+
+		public int frequency(int i)
+		{
+			decode(i / BLOCK_SIZE);
+			return blockFreqs[i % BLOCK_SIZE];
+		}
+
+		public Occurrence get(int i)
+		{
+			return new Occurrence(document(i), frequency(i));
+		}
+
+		private void decode(int b)
+		{
+			if (b == block)
+				return;
+
+			int pos = blocks + buf.getInt(skips + 4 * b);
+			int count = Math.min(BLOCK_SIZE, size - b * BLOCK_SIZE);
+			for (int i = 0; i < count; i++)
+			{
+				int x = 0;
+				int shift = 0;
+				byte v;
+				do
+				{
+					v = buf.get(pos++);
+					x |= (v & 0x7f) << shift;
+					shift += 7;
+				}
+				while (v < 0);
+
+				int y = 0;
+				shift = 0;
+				do
+				{
+					v = buf.get(pos++);
+					y |= (v & 0x7f) << shift;
+					shift += 7;
+				}
+				while (v < 0);
+
+				if (i == 0)
+				{
+					blockDocs[0] = x;
+					blockFreqs[0] = y;
+				}
+				else
+				{
+					blockFreqs[i] = blockFreqs[i - 1] - x;
+					blockDocs[i] = blockDocs[i - 1] + ((y >>> 1) ^ -(y & 1));
+				}
+			}
+			block = b;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package search;
+
+import java.util.*;
+
+/**
+ * This class interns document names into consecutive integer ids, so that posting lists
+ * can refer to documents by id instead of holding on to the name of the document.
+ * 
+ */
+class DocumentTable {
+
+	/**
+	 * Document names, indexed by document id.
+	 */
+	private ArrayList<String> names;
+
+	/**
+	 * Maps a document name to its id.
+	 */
+	private HashMap<String,Integer> ids;
+
+	/**
+	 * Initializes an empty document table.
+	 */
+	public DocumentTable() {
+		names = new ArrayList<String>();
+		ids = new HashMap<String,Integer>();
+	}
+
+	/**
+	 * Returns the id of a document, assigning the next free id if the document
+	 * has not been seen before.
+	 * 
+	 * @param document Document name
+	 * @return Id of the document
+	 */
+	public int intern(String document)
+	{
+		Integer id = ids.get(document);
+		if (id == null)
+		{
+			id = names.size();
+			names.add(document);
+			ids.put(document, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of a document.
+	 * 
+	 * @param document Document name
+	 * @return Id of the document, -1 if the document is not in the table
+	 */
+	public int lookup(String document)
+	{
+		Integer id = ids.get(document);
+		return (id == null) ? -1 : id;
+	}
+
+	/**
+	 * Returns the name of a document.
+	 * 
+	 * @param id Document id
+	 * @return Document name
+	 */
+	public String name(int id)
+	{
+		return names.get(id);
+	}
+
+	/**
+	 * Returns the number of documents in the table.
+	 * 
+	 * @return Number of documents
+	 */
+	public int size()
+	{
+		return names.size();
+	}
+}
@@ -0,0 +1,154 @@
+package search;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Counters for indexing and searching in a LittleSearchEngine. All counters can be
+ * updated from any number of threads without locking. An instance can be registered with
+ * an MBean server through its IndexMetricsMBean interface.
+ * 
+ */
+public class IndexMetrics implements IndexMetricsMBean {
+
+	private AtomicLong documentsIndexed = new AtomicLong();
+	private AtomicLong tokensScanned = new AtomicLong();
+	private AtomicLong keywordsRetained = new AtomicLong();
+	private AtomicLong noiseWordsDropped = new AtomicLong();
+	private AtomicLong bytesRead = new AtomicLong();
+	private AtomicLong mergeNanos = new AtomicLong();
+
+	/**
+	 * Latencies of all searches.
+	 */
+	private LatencyHistogram searchLatency = new LatencyHistogram();
+
+	/**
+	 * Records the scan of one document.
+	 * 
+	 * @param tokens Number of words read
+	 * @param keywords Number of words kept as keywords
+	 * @param noiseWords Number of words dropped as noise words
+	 * @param bytes Size of the document in bytes
+	 */
+	void documentScanned(long tokens, long keywords, long noiseWords, long bytes)
+	{
+		tokensScanned.addAndGet(tokens);
+		keywordsRetained.addAndGet(keywords);
+		noiseWordsDropped.addAndGet(noiseWords);
+		bytesRead.addAndGet(bytes);
+	}
+
+	/**
+	 * Records the merge of documents into the index.
+	 * 
+	 * @param documents Number of documents merged
+	 * @param nanos Time taken, in nanoseconds
+	 */
+	void documentsMerged(long documents, long nanos)
+	{
+		documentsIndexed.addAndGet(documents);
+		mergeNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * Records the latency of a search.
+	 * 
+	 * @param nanos Time taken, in nanoseconds
+	 */
+	void searched(long nanos)
+	{
+		searchLatency.record(nanos);
+	}
+
+	/**
+	 * Returns the histogram of search latencies.
+	 * 
+	 * @return Search latency histogram
+	 */
+	LatencyHistogram getSearchLatency()
+	{
+		return searchLatency;
+	}
+
+	public long getDocumentsIndexed()
+	{
+		return documentsIndexed.get();
+	}
+
+	public long getTokensScanned()
+	{
+		return tokensScanned.get();
+	}
+
+	public long getKeywordsRetained()
+	{
+		return keywordsRetained.get();
+	}
+
+	public long getNoiseWordsDropped()
+	{
+		return noiseWordsDropped.get();
+	}
+
+	public long getBytesRead()
+	{
+		return bytesRead.get();
+	}
+
+	public long getMergeTimeMillis()
+	{
+		return mergeNanos.get() / 1000000;
+	}
+
+	public long getSearchCount()
+	{
+		return searchLatency.count();
+	}
+
+	public double getSearchLatencyMeanMicros()
+	{
+		return searchLatency.mean() / 1000.0;
+	}
+
+	public double getSearchLatencyP50Micros()
+	{
+		return searchLatency.percentile(50) / 1000.0;
+	}
+
+	public double getSearchLatencyP99Micros()
+	{
+		return searchLatency.percentile(99) / 1000.0;
+	}
+
+	public double getSearchLatencyP999Micros()
+	{
+		return searchLatency.percentile(99.9) / 1000.0;
+	}
+
+	public double getSearchLatencyMaxMicros()
+	{
+		return searchLatency.max() / 1000.0;
+	}
+
+	public void reset()
+	{
+		documentsIndexed.set(0);
+		tokensScanned.set(0);
+		keywordsRetained.set(0);
+		noiseWordsDropped.set(0);
+		bytesRead.set(0);
+		mergeNanos.set(0);
+		searchLatency.reset();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "documents=" + getDocumentsIndexed() + " tokens=" + getTokensScanned()
+			+ " keywords=" + getKeywordsRetained() + " noise=" + getNoiseWordsDropped()
+			+ " bytes=" + getBytesRead() + " mergeMillis=" + getMergeTimeMillis()
+			+ " searches=" + getSearchCount() + " p50us=" + getSearchLatencyP50Micros()
+			+ " p99us=" + getSearchLatencyP99Micros();
+	}
+}
@@ -0,0 +1,74 @@
+package search;
+
+/**
+ * Management interface of IndexMetrics, through which the counters of a
+ * LittleSearchEngine are exposed over JMX.
+ * 
+ */
+public interface IndexMetricsMBean {
+
+	/**
+	 * @return Number of documents merged into the index
+	 */
+	long getDocumentsIndexed();
+
+	/**
+	 * @return Number of words read from documents
+	 */
+	long getTokensScanned();
+
+	/**
+	 * @return Number of words kept as keywords
+	 */
+	long getKeywordsRetained();
+
+	/**
+	 * @return Number of words dropped as noise words
+	 */
+	long getNoiseWordsDropped();
+
+	/**
+	 * @return Number of bytes of documents read
+	 */
+	long getBytesRead();
+
+	/**
+	 * @return Total time spent merging document keywords into the index, in milliseconds
+	 */
+	long getMergeTimeMillis();
+
+	/**
+	 * @return Number of searches run
+	 */
+	long getSearchCount();
+
+	/**
+	 * @return Mean search latency, in microseconds
+	 */
+	double getSearchLatencyMeanMicros();
+
+	/**
+	 * @return Median search latency, in microseconds
+	 */
+	double getSearchLatencyP50Micros();
+
+	/**
+	 * @return 99th percentile search latency, in microseconds
+	 */
+	double getSearchLatencyP99Micros();
+
+	/**
+	 * @return 99.9th percentile search latency, in microseconds
+	 */
+	double getSearchLatencyP999Micros();
+
+	/**
+	 * @return Largest search latency, in microseconds
+	 */
+	double getSearchLatencyMaxMicros();
+
+	/**
+	 * Clears all counters and the search latency histogram.
+	 */
+	void reset();
+}
@@ -0,0 +1,426 @@
+package search;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+/**
+ * This class stores a built keywords index in a binary segment file, and reads it back by
+ * memory-mapping the file, so that a saved index can be searched without re-scanning any
+ * of the documents.
+ * 
+ * The segment file is laid out as follows (all ints are big-endian):
+ * <pre>
+ *   int magic, int version
+ *   string table of document names, indexed by document id
+ *   string table of noise words
+ *   string table of keywords, sorted in byte order of their UTF-8 encoding
+ *   int[keywordCount+1] byte offset of each keyword's postings from the first one
+ *   postings of every keyword, each a CompressedPostingList
+ * </pre>
+ * A string table is an int count, followed by count+1 int offsets into the bytes
+ * that follow, followed by the UTF-8 bytes of all strings. The postings of each keyword
+ * are in descending order of frequency, block-compressed, and are decoded a block at a
+ * time straight from the mapping as they are read. Since a segment is mapped with a
+ * single buffer, the file is limited to 2GB.
+ * 
+ */
+class IndexSegment {
+
+	/**
+	 * Magic number at the start of every segment file ("LSE1").
+	 */
+	static final int MAGIC = 0x4C534531;
+
+	/**
+	 * Version of the segment format.
+	 */
+	static final int VERSION = 2;
+
+	/**
+	 * Mapped segment file.
+	 */
+	private ByteBuffer buf;
+
+	/**
+	 * Document names, interned to the ids used by the postings.
+	 */
+	private DocumentTable docs;
+
+	/**
+	 * Noise words that were in effect when the index was built.
+	 */
+	private String[] noiseWords;
+
+	/**
+	 * Number of keywords.
+	 */
+	private int termCount;
+
+	/**
+	 * Position of the keyword offsets (the keyword bytes follow these offsets).
+	 */
+	private int termOffsets;
+
+	/**
+	 * Position of the keyword bytes.
+	 */
+	private int termBytes;
+
+	/**
+	 * Position of the postings start array.
+	 */
+	private int postingStarts;
+
+	/**
+	 * Position of the postings.
+	 */
+	private int postings;
+
+	private IndexSegment(ByteBuffer buf)
+	throws IOException {
+		this.buf = buf;
+		if (buf.limit() < 8 || buf.getInt(0) != MAGIC)
+			throw new IOException("not an index segment");
+		if (buf.getInt(4) != VERSION)
+			throw new IOException("unsupported index segment version " + buf.getInt(4));
+
+		int pos = 8;
+		docs = new DocumentTable();
+		for (String doc : readStrings(pos))
+			docs.intern(doc);
+		pos = endOfStrings(pos);
+		noiseWords = readStrings(pos);
+		pos = endOfStrings(pos);
+
+		termCount = buf.getInt(pos);
+		termOffsets = pos + 4;
+		termBytes = termOffsets + 4 * (termCount + 1);
+		postingStarts = endOfStrings(pos);
+		postings = postingStarts + 4 * (termCount + 1);
+	}
+
+	/**
+	 * Opens a segment file by mapping it into memory. The file is not read any further
+	 * than its document and noise word tables until keywords are looked up.
+	 * 
+	 * @param file Segment file
+	 * @return Opened segment
+	 * @throws IOException If the file cannot be read or is not a segment file
+	 */
+	public static IndexSegment open(File file)
+	throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			return new IndexSegment(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+		finally
+		{
+			// the mapping stays valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes a keywords index to a segment file.
+	 * 
+	 * @param index Compact form of the keywords index
+	 * @param noiseWords Noise words used to build the index
+	 * @param file Segment file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public static void write(CompactIndex index, Collection<String> noiseWords, File file)
+	throws IOException
+	{
+		DocumentTable docs = index.documents();
+
+		// keywords in byte order of their encoding, so lookups can compare mapped bytes
+		final HashMap<String,byte[]> encoded = new HashMap<String,byte[]>();
+		for (String key : index.keywords())
+			encoded.put(key, key.getBytes("UTF-8"));
+		ArrayList<String> terms = new ArrayList<String>(encoded.keySet());
+		Collections.sort(terms, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return compareBytes(encoded.get(a), encoded.get(b));
+			}
+		});
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			ArrayList<byte[]> names = new ArrayList<byte[]>();
+			for (int id = 0; id < docs.size(); id++)
+				names.add(docs.name(id).getBytes("UTF-8"));
+			writeStrings(out, names);
+
+			ArrayList<byte[]> noise = new ArrayList<byte[]>();
+			for (String word : noiseWords)
+				noise.add(word.getBytes("UTF-8"));
+			writeStrings(out, noise);
+
+			ArrayList<byte[]> keys = new ArrayList<byte[]>();
+			for (String term : terms)
+				keys.add(encoded.get(term));
+			writeStrings(out, keys);
+
+			ArrayList<byte[]> lists = new ArrayList<byte[]>(terms.size());
+			for (String term : terms)
+				lists.add(CompressedPostingList.encode(index.get(term)));
+
+			int start = 0;
+			for (byte[] list : lists)
+			{
+				out.writeInt(start);
+				start += list.length;
+			}
+			out.writeInt(start);
+
+			for (byte[] list : lists)
+				out.write(list);
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	 * Looks up the postings of a keyword with a binary search of the sorted keyword table.
+	 * The returned postings are decoded directly from the mapped file, a block at a time,
+	 * and must only be read by one thread.
+	 * 
+	 * @param keyword Keyword
+	 * @return Postings of the keyword, null if the keyword is not in the segment
+	 */
+	public Postings get(String keyword)
+	{
+		int term = find(keyword);
+		if (term < 0)
+			return null;
+
+		int start = buf.getInt(postingStarts + 4 * term);
+		return new CompressedPostingList(buf, postings + start, docs).reader();
+	}
+
+	/**
+	 * Adds all keywords in the segment that match a pattern to a list, with the same rules
+	 * as TermDictionary.expand. The first keyword that starts with the literal prefix of the
+	 * pattern is found with a binary search of the sorted keyword table, and only the
+	 * keywords from there on that have the prefix are decoded.
+	 * 
+	 * @param pattern Keyword pattern, in lower case
+	 * @param matches List to which the matching keywords are added, in byte order of their
+	 *        UTF-8 encoding
+	 */
+	public void expand(String pattern, List<String> matches)
+	{
+		int wild = TermDictionary.firstWildcard(pattern);
+		if (wild < 0)
+		{
+			if (find(pattern) >= 0)
+				matches.add(pattern);
+			return;
+		}
+
+		byte[] prefix = encode(pattern.substring(0, wild));
+		boolean all = TermDictionary.isPrefixPattern(pattern, wild);
+		for (int term = lowerBound(prefix); term < termCount; term++)
+		{
+			int start = termStart(term);
+			int end = termStart(term + 1);
+			if (!startsWith(start, end, prefix))
+				break;
+
+			String keyword = decode(start, end);
+			if (all || TermDictionary.matches(pattern, wild, keyword, wild))
+				matches.add(keyword);
+		}
+	}
+
+	/**
+	 * Returns all keywords in the segment, in sorted order. This decodes the entire
+	 * keyword table, so it should not be used on the query path.
+	 * 
+	 * @return List of keywords
+	 */
+	public ArrayList<String> keywords()
+	{
+		ArrayList<String> terms = new ArrayList<String>(termCount);
+		for (int i = 0; i < termCount; i++)
+			terms.add(termAt(i));
+		return terms;
+	}
+
+	/**
+	 * Returns the noise words that were in effect when the index was built.
+	 * 
+	 * @return Noise words
+	 */
+	public String[] noiseWords()
+	{
+		return noiseWords;
+	}
+
+	/**
+	 * Returns the number of documents in the segment.
+	 * 
+	 * @return Number of documents
+	 */
+	public int documentCount()
+	{
+		return docs.size();
+	}
+
+	/**
+	 * Tells if a document is in the segment.
+	 * 
+	 * @param docFile Name of the document file
+	 * @return True if the document is in the segment, false otherwise
+	 */
+	public boolean containsDocument(String docFile)
+	{
+		return docs.lookup(docFile) >= 0;
+	}
+
+	private int find(String keyword)
+	{
+		byte[] key = encode(keyword);
+		int term = lowerBound(key);
+		if ((term < termCount) && (compareMapped(termStart(term), termStart(term + 1), key) == 0))
+			return term;
+		return -1;
+	}
+
+	/**
+	 * Returns the first keyword that is not less than a key, termCount if there is none.
+	 */
+	private int lowerBound(byte[] key)
+	{
+		int low = 0;
+		int high = termCount;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (compareMapped(termStart(mid), termStart(mid + 1), key) < 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private int termStart(int term)
+	{
+		return termBytes + buf.getInt(termOffsets + 4 * term);
+	}
+
+	private boolean startsWith(int start, int end, byte[] prefix)
+	{
+		if (end - start < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++)
+		{
+			if (buf.get(start + i) != prefix[i])
+				return false;
+		}
+		return true;
+	}
+
+	private int compareMapped(int start, int end, byte[] key)
+	{
+		int len = end - start;
+		int n = Math.min(len, key.length);
+		for (int i = 0; i < n; i++)
+		{
+			int a = buf.get(start + i) & 0xff;
+			int b = key[i] & 0xff;
+			if (a != b)
+				return a - b;
+		}
+		return len - key.length;
+	}
+
+	private String termAt(int term)
+	{
+		return decode(termStart(term), termStart(term + 1));
+	}
+
+	private String[] readStrings(int pos)
+	{
+		int count = buf.getInt(pos);
+		int bytes = pos + 4 + 4 * (count + 1);
+		String[] strings = new String[count];
+		for (int i = 0; i < count; i++)
+			strings[i] = decode(bytes + buf.getInt(pos + 4 + 4 * i), bytes + buf.getInt(pos + 4 + 4 * (i + 1)));
+		return strings;
+	}
+
+	private int endOfStrings(int pos)
+	{
+		int count = buf.getInt(pos);
+		int bytes = pos + 4 + 4 * (count + 1);
+		return bytes + buf.getInt(pos + 4 + 4 * count);
+	}
+
+	private String decode(int start, int end)
+	{
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = buf.get(start + i);
+		try
+		{
+			return new String(bytes, "UTF-8");
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static byte[] encode(String s)
+	{
+		try
+		{
+			return s.getBytes("UTF-8");
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void writeStrings(DataOutputStream out, ArrayList<byte[]> strings)
+	throws IOException
+	{
+		out.writeInt(strings.size());
+		int offset = 0;
+		for (byte[] s : strings)
+		{
+			out.writeInt(offset);
+			offset += s.length;
+		}
+		out.writeInt(offset);
+		for (byte[] s : strings)
+			out.write(s);
+	}
+
+	private static int compareBytes(byte[] a, byte[] b)
+	{
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++)
+		{
+			int x = a[i] & 0xff;
+			int y = b[i] & 0xff;
+			if (x != y)
+				return x - y;
+		}
+		return a.length - b.length;
+	}
+}
@@ -0,0 +1,462 @@
+package search;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Scans a list of documents for keywords, with reading and tokenizing overlapped. The
+ * calling thread reads every document with NIO in windows of at most CHUNK_BYTES (read
+ * into the heap for small files, memory-mapped for large ones), cuts each window at its
+ * last white space, and puts the chunk on a bounded queue. The partial word after the cut
+ * is carried over to the next window, which starts there. A pool of workers takes chunks
+ * off the queue, decodes them (with a fast path for plain ASCII text, and with the default
+ * charset, as FileReader does, otherwise) and counts their keywords with a
+ * KeyWordTokenizer. The counts of the chunks of a document are added up as they come in,
+ * and the document is done when its last chunk is. When the queue is full, the reader
+ * waits, so no more than a few chunks per worker are ever in memory.
+ *
+ * White space is cut at in bytes, which is safe for UTF-8 (and any other charset that is
+ * a superset of ASCII), since no byte of a multi-byte character is ASCII. A window with
+ * no white space at all, in the middle of a word longer than CHUNK_BYTES, is made longer
+ * until it holds the whole word, which is bounded by STREAMING_THRESHOLD.
+ *
+ * Documents of more than STREAMING_THRESHOLD bytes, and all documents when keyword
+ * positions are being recorded, are not read by the calling thread. A worker scans each
+ * of them whole through a FileReader, as loadKeyWords does, so the memory it takes does
+ * not grow with the size of the document, and positions count from its start.
+ *
+ */
+class IngestPipeline {
+
+	/**
+	 * Size in bytes of the windows in which documents are read, and at which they are cut
+	 * into chunks.
+	 */
+	static final int CHUNK_BYTES = 1 << 20;
+
+	/**
+	 * Documents of at least this many bytes are memory-mapped instead of read.
+	 */
+	static final long MAP_THRESHOLD = 4L << 20;
+
+	/**
+	 * Documents of more than this many bytes are scanned by a worker through a FileReader,
+	 * instead of being read and cut into chunks.
+	 */
+	static final long STREAMING_THRESHOLD = 64L << 20;
+
+	/**
+	 * Number of chunks that may wait in the queue per worker.
+	 */
+	static final int QUEUE_CHUNKS = 4;
+
+	/**
+	 * A document being scanned.
+	 */
+	private static class Document {
+		String file;
+		long bytes;
+		long start;
+
+		/**
+		 * Chunks not yet counted, plus one until all chunks are queued.
+		 */
+		AtomicInteger pending = new AtomicInteger(1);
+
+		HashMap<String,Occurrence> keywords;
+		long tokens, retained, noise;
+
+		Document(String file, long bytes, long start) {
+			this.file = file;
+			this.bytes = bytes;
+			this.start = start;
+		}
+	}
+
+	/**
+	 * A range of bytes of a document, or the whole document if bytes is null, in which
+	 * case the worker reads it.
+	 */
+	private static class Chunk {
+		Document doc;
+		ByteBuffer bytes;
+
+		Chunk(Document doc, ByteBuffer bytes) {
+			this.doc = doc;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Tells a worker to stop.
+	 */
+	private static final Chunk END = new Chunk(null, null);
+
+	private LittleSearchEngine engine;
+	private NoiseWords noiseWords;
+	private boolean positional;
+	private int workers;
+	private ArrayBlockingQueue<Chunk> queue;
+
+	/**
+	 * First error in a worker, if any.
+	 */
+	private AtomicReference<Throwable> error;
+
+	/**
+	 * Initializes a pipeline that scans documents for an engine, with its noise words,
+	 * recording positions if the engine does, and reporting scanned documents to its
+	 * metrics and listeners.
+	 *
+	 * @param engine Engine
+	 * @param noiseWords Noise words to filter out
+	 * @param workers Number of tokenizer threads
+	 */
+	public IngestPipeline(LittleSearchEngine engine, NoiseWords noiseWords, int workers) {
+		this.engine = engine;
+		this.noiseWords = noiseWords;
+		this.workers = Math.max(1, workers);
+		positional = engine.positional;
+		queue = new ArrayBlockingQueue<Chunk>(QUEUE_CHUNKS * this.workers);
+		error = new AtomicReference<Throwable>();
+	}
+
+	/**
+	 * Scans documents.
+	 *
+	 * @param docFiles Names of the document files
+	 * @return Hash table of keywords of each document, in the order of docFiles
+	 * @throws FileNotFoundException If any of the documents is not found on disk
+	 */
+	public ArrayList<HashMap<String,Occurrence>> scan(List<String> docFiles)
+	throws FileNotFoundException
+	{
+		ArrayList<Document> docs = new ArrayList<Document>(docFiles.size());
+		Thread[] threads = new Thread[workers];
+		for (int i = 0; i < workers; i++)
+		{
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					work();
+				}
+			}, "ingest-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+
+		try
+		{
+			for (String docFile : docFiles)
+			{
+				if (error.get() != null)
+					break;
+				docs.add(read(docFile));
+			}
+		}
+		finally
+		{
+			for (int i = 0; i < workers; i++)
+				put(END);
+			for (Thread t : threads)
+			{
+				try
+				{
+					t.join();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("indexing was interrupted", e);
+				}
+			}
+		}
+
+		Throwable cause = error.get();
+		if (cause instanceof FileNotFoundException)
+			throw (FileNotFoundException) cause;
+		if (cause instanceof RuntimeException)
+			throw (RuntimeException) cause;
+		if (cause instanceof Error)
+			throw (Error) cause;
+		if (cause != null)
+			throw new IllegalStateException(cause);
+
+		ArrayList<HashMap<String,Occurrence>> allKws = new ArrayList<HashMap<String,Occurrence>>(docs.size());
+		for (Document doc : docs)
+			allKws.add(doc.keywords);
+		return allKws;
+	}
+
+	/**
+	 * Reads a document window by window and queues its chunks, or queues the whole
+	 * document for a worker to stream.
+	 */
+	private Document read(String docFile)
+	throws FileNotFoundException
+	{
+		long start = System.nanoTime();
+		FileInputStream in = new FileInputStream(docFile);
+		try
+		{
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			Document doc = new Document(docFile, size, start);
+			if (positional || (size > STREAMING_THRESHOLD))
+			{
+				doc.pending.incrementAndGet();
+				put(new Chunk(doc, null));
+			}
+			else
+			{
+				long from = 0;
+				while (from < size)
+				{
+					// the partial word after the cut is read again with the next window
+					int length = (int) Math.min(CHUNK_BYTES, size - from);
+					ByteBuffer window = window(channel, from, length, size);
+					int end = cut(window);
+					while ((end == 0) && (window.limit() == length) && (from + length < size))
+					{
+						length = (int) Math.min(2L * length, size - from);
+						window = window(channel, from, length, size);
+						end = cut(window);
+					}
+					if (!window.hasRemaining())
+						break;
+
+					if ((end > 0) && (from + window.limit() < size))
+						window.limit(end);
+					doc.pending.incrementAndGet();
+					put(new Chunk(doc, window));
+					from += window.limit();
+				}
+			}
+			if (doc.pending.decrementAndGet() == 0)
+				finish(doc);
+			return doc;
+		}
+		catch (FileNotFoundException e)
+		{
+			throw e;
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("error reading " + docFile, e);
+		}
+		finally
+		{
+			try
+			{
+				in.close();
+			}
+			catch (IOException e)
+			{
+			}
+		}
+	}
+
+	/**
+	 * Returns a window of a document, memory-mapped if the document is large and read
+	 * otherwise. The window is short if the document is shorter than when it was opened.
+	 */
+	private static ByteBuffer window(FileChannel channel, long from, int length, long size)
+	throws IOException
+	{
+		if (size >= MAP_THRESHOLD)
+			return channel.map(FileChannel.MapMode.READ_ONLY, from, length);
+
+		ByteBuffer window = ByteBuffer.allocate(length);
+		while (window.hasRemaining() && (channel.read(window, from + window.position()) >= 0))
+			;
+		window.flip();
+		return window;
+	}
+
+	/**
+	 * Returns the position just past the last ASCII white space byte in a window, 0 if it
+	 * has none.
+	 */
+	private static int cut(ByteBuffer window)
+	{
+		for (int at = window.limit() - 1; at >= 0; at--)
+		{
+			if (isSpace(window.get(at)))
+				return at + 1;
+		}
+		return 0;
+	}
+
+	private static boolean isSpace(byte b)
+	{
+		return (b == ' ') || (b == '\n') || (b == '\r') || (b == '\t') || (b == '\f') || (b == 0x0b);
+	}
+
+	private void put(Chunk chunk)
+	{
+		try
+		{
+			queue.put(chunk);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("indexing was interrupted", e);
+		}
+	}
+
+	/**
+	 * Takes chunks off the queue and counts their keywords, until told to stop. After an
+	 * error, chunks are still taken off the queue, so the reader is never stuck.
+	 */
+	private void work()
+	{
+		char[] chars = new char[CHUNK_BYTES];
+		CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		while (true)
+		{
+			Chunk chunk;
+			try
+			{
+				chunk = queue.take();
+			}
+			catch (InterruptedException e)
+			{
+				error.compareAndSet(null, e);
+				return;
+			}
+			if (chunk == END)
+				return;
+			if (error.get() != null)
+				continue;
+
+			try
+			{
+				if (chunk.bytes == null)
+				{
+					stream(chunk.doc);
+					continue;
+				}
+
+				int n = chunk.bytes.remaining();
+				if (chars.length < n)
+					chars = new char[n];
+				n = decode(chunk.bytes, chars, decoder);
+				if (n > chars.length)
+				{
+					chars = new char[n];
+					n = decode(chunk.bytes, chars, decoder);
+				}
+
+				KeyWordTokenizer tokens = new KeyWordTokenizer(chars, 0, n, noiseWords);
+				HashMap<String,Occurrence> kws = LittleSearchEngine.countKeyWords(chunk.doc.file, tokens, positional);
+				add(chunk.doc, kws, tokens);
+			}
+			catch (Throwable e)
+			{
+				error.compareAndSet(null, e);
+			}
+		}
+	}
+
+	/**
+	 * Scans a whole document through a FileReader, in a fixed-size buffer.
+	 */
+	private void stream(Document doc)
+	throws IOException
+	{
+		HashMap<String,Occurrence> kws;
+		KeyWordTokenizer tokens = new KeyWordTokenizer(new FileReader(doc.file), noiseWords);
+		try
+		{
+			kws = LittleSearchEngine.countKeyWords(doc.file, tokens, positional);
+		}
+		finally
+		{
+			tokens.close();
+		}
+		add(doc, kws, tokens);
+	}
+
+	/**
+	 * Decodes bytes into chars, one char per byte as long as the bytes are ASCII, and
+	 * with a decoder from the start otherwise.
+	 *
+	 * @return Number of chars, which may be more than fit in chars, in which case chars is
+	 *         not filled in
+	 */
+	private static int decode(ByteBuffer bytes, char[] chars, CharsetDecoder decoder)
+	throws CharacterCodingException
+	{
+		int n = bytes.remaining();
+		int i = 0;
+		for (; i < n; i++)
+		{
+			byte b = bytes.get(i);
+			if (b < 0)
+				break;
+			chars[i] = (char) b;
+		}
+		if (i == n)
+			return n;
+
+		CharBuffer decoded = decoder.reset().decode(bytes.duplicate());
+		int length = decoded.remaining();
+		if (length <= chars.length)
+			decoded.get(chars, 0, length);
+		return length;
+	}
+
+	/**
+	 * Adds the keywords of a chunk to those of its document, and finishes the document
+	 * if this was its last chunk.
+	 */
+	private void add(Document doc, HashMap<String,Occurrence> kws, KeyWordTokenizer tokens)
+	{
+		synchronized (doc)
+		{
+			doc.tokens += tokens.tokens();
+			doc.retained += tokens.keywords();
+			doc.noise += tokens.noiseWords();
+			if (doc.keywords == null)
+				doc.keywords = kws;
+			else
+			{
+				HashMap<String,Occurrence> into = doc.keywords;
+				HashMap<String,Occurrence> from = kws;
+				if (from.size() > into.size())
+				{
+					into = kws;
+					from = doc.keywords;
+				}
+				for (Map.Entry<String,Occurrence> e : from.entrySet())
+				{
+					Occurrence oc = into.get(e.getKey());
+					if (oc == null)
+						into.put(e.getKey(), e.getValue());
+					else
+						oc.frequency += e.getValue().frequency;
+				}
+				doc.keywords = into;
+			}
+		}
+		if (doc.pending.decrementAndGet() == 0)
+			finish(doc);
+	}
+
+	private void finish(Document doc)
+	{
+		synchronized (doc)
+		{
+			if (doc.keywords == null)
+				doc.keywords = new HashMap<String,Occurrence>();
+			engine.scanned(doc.file, doc.tokens, doc.retained, doc.noise, doc.bytes, doc.keywords.size(), doc.start);
+		}
+	}
+}
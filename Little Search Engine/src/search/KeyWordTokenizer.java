@@ -0,0 +1,217 @@
+package search;
+
+import java.io.*;
+
+/**
+ * Streaming tokenizer that pulls keywords out of a document. The input is read in large
+ * chunks into a char buffer, and words (separated by white space, as with a Scanner) are
+ * checked against the keyword rules of LittleSearchEngine.getKeyWord as their characters
+ * go by: case is folded, a letter following a non-letter rejects the word, and anything
+ * after the leading letters is trailing punctuation that is dropped. Only the leading
+ * letters of a word are ever buffered, and a String is created only for a word that
+ * turns out to be a keyword.
+ * 
+ */
+class KeyWordTokenizer {
+
+	/**
+	 * Size of the chunks in which the input is read.
+	 */
+	static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Input document, null if the whole input is in buf.
+	 */
+	private Reader in;
+
+	/**
+	 * Noise words to filter out.
+	 */
+	private NoiseWords noiseWords;
+
+	/**
+	 * Current chunk of input.
+	 */
+	private char[] buf;
+
+	/**
+	 * Position of the next unread character in buf.
+	 */
+	private int pos;
+
+	/**
+	 * End of the valid characters in buf, -1 at end of input.
+	 */
+	private int limit;
+
+	/**
+	 * Leading letters of the current word, lower case.
+	 */
+	private char[] word;
+
+	/**
+	 * Number of words read, number kept as keywords, and number dropped as noise words.
+	 */
+	private long tokens, keywords, noise;
+
+	/**
+	 * Initializes this tokenizer.
+	 * 
+	 * @param in Input document, read in chunks of BUFFER_SIZE characters
+	 * @param noiseWords Noise words to filter out
+	 */
+	public KeyWordTokenizer(Reader in, NoiseWords noiseWords) {
+		this.in = in;
+		this.noiseWords = noiseWords;
+		buf = new char[BUFFER_SIZE];
+		word = new char[32];
+	}
+
+	/**
+	 * Initializes this tokenizer over text that is already in memory. The text is not copied.
+	 * 
+	 * @param text Characters of the input document
+	 * @param offset Offset of the first character of the input in text
+	 * @param length Number of characters of input
+	 * @param noiseWords Noise words to filter out
+	 */
+	public KeyWordTokenizer(char[] text, int offset, int length, NoiseWords noiseWords) {
+		this.noiseWords = noiseWords;
+		buf = text;
+		pos = offset;
+		limit = offset + length;
+		word = new char[32];
+	}
+
+	/**
+	 * Returns the next keyword in the input.
+	 * 
+	 * @return Next keyword (LOWER CASE, without trailing punctuation), null at end of input
+	 * @throws IOException If the input cannot be read
+	 */
+	public String next()
+	throws IOException
+	{
+		while (true)
+		{
+			// skip white space
+			int c;
+			while ((c = read()) >= 0 && Character.isWhitespace((char) c))
+				;
+			if (c < 0)
+				return null;
+
+			tokens++;
+			int length = 0;
+			boolean trailing = false;
+			boolean rejected = false;
+			do
+			{
+				char ch = Character.toLowerCase((char) c);
+				if (Character.isLetter(ch))
+				{
+					if (trailing)
+						rejected = true;
+					else
+					{
+						if (length == word.length)
+						{
+							char[] grown = new char[2 * length];
+							System.arraycopy(word, 0, grown, 0, length);
+							word = grown;
+						}
+						word[length++] = ch;
+					}
+				}
+				else
+					trailing = true;
+			}
+			while ((c = read()) >= 0 && !Character.isWhitespace((char) c));
+
+			if (rejected || length == 0)
+				continue;
+			if (noiseWords.contains(word, 0, length))
+			{
+				noise++;
+				continue;
+			}
+			keywords++;
+			return new String(word, 0, length);
+		}
+	}
+
+	/**
+	 * Returns the position of the last keyword returned, which is the number of words
+	 * (keywords or not) before it in the input.
+	 * 
+	 * @return Position of the last keyword
+	 */
+	public int position()
+	{
+		return (int) (tokens - 1);
+	}
+
+	/**
+	 * Returns the number of words read so far.
+	 * 
+	 * @return Number of words
+	 */
+	public long tokens()
+	{
+		return tokens;
+	}
+
+	/**
+	 * Returns the number of keywords returned so far.
+	 * 
+	 * @return Number of keywords
+	 */
+	public long keywords()
+	{
+		return keywords;
+	}
+
+	/**
+	 * Returns the number of noise words dropped so far.
+	 * 
+	 * @return Number of noise words
+	 */
+	public long noiseWords()
+	{
+		return noise;
+	}
+
+	/**
+	 * Closes the input document.
+	 * 
+	 * @throws IOException If the input cannot be closed
+	 */
+	public void close()
+	throws IOException
+	{
+		if (in != null)
+			in.close();
+	}
+
+	private int read()
+	throws IOException
+	{
+		if (pos >= limit)
+		{
+			if ((limit < 0) || (in == null))
+			{
+				limit = -1;
+				return -1;
+			}
+			int n = in.read(buf, 0, buf.length);
+			if (n <= 0)
+			{
+				limit = -1;
+				return -1;
+			}
+			pos = 0;
+			limit = n;
+		}
+		return buf[pos++];
+	}
+}
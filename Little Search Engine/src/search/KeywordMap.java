@@ -0,0 +1,364 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Persistent hash table from keywords to their Occurrence lists, used for the keywords
+ * index. It is a hash array mapped trie: each node has a 32-bit bitmap of the 5-bit
+ * slices of the hash codes under it, and one slot per bit set, which holds either an
+ * entry or a child node for the next 5 bits. Keys whose 32-bit hash codes are the same
+ * share a node past the last slice, in which they are looked up one by one.
+ *
+ * Nodes are never changed once they are built. Putting or removing a key builds new
+ * copies of the nodes on the path to it (no more than 8) and shares all the others, so a
+ * snapshot of a table costs nothing, and changing a snapshot costs the same as changing
+ * the table, no matter how large the table is. publishDocuments relies on this to build
+ * the next index next to the one being searched without copying it.
+ *
+ * A table can be read by any number of threads while a single thread changes it, since
+ * readers only ever see whole nodes. Iterators go over the table as it was when they were
+ * created.
+ *
+ */
+class KeywordMap extends AbstractMap<String,ArrayList<Occurrence>> {
+
+	/**
+	 * Node of the trie. In a node past the last slice of the hash codes, the bitmap is 0
+	 * and every slot is an entry.
+	 */
+	private static final class Node {
+		final int bitmap;
+		final Object[] slots;
+
+		Node(int bitmap, Object[] slots) {
+			this.bitmap = bitmap;
+			this.slots = slots;
+		}
+	}
+
+	/**
+	 * Keyword and its Occurrence list, with the hash code of the keyword.
+	 */
+	private static final class Entry extends AbstractMap.SimpleImmutableEntry<String,ArrayList<Occurrence>> {
+		private static final long serialVersionUID = 1L;
+
+		final int hash;
+
+		Entry(int hash, String key, ArrayList<Occurrence> value) {
+			super(key, value);
+			this.hash = hash;
+		}
+	}
+
+	/**
+	 * Trie with no keys.
+	 */
+	private static final Node EMPTY = new Node(0, new Object[0]);
+
+	/**
+	 * Number of bits of the hash code used at each level.
+	 */
+	private static final int BITS = 5;
+
+	/**
+	 * Root of the trie. This is the only field that changes, and a reader that takes it
+	 * sees a whole table.
+	 */
+	private volatile Node root;
+
+	/**
+	 * Number of keys.
+	 */
+	private volatile int size;
+
+	/**
+	 * Whether the last put added a key, or the last remove removed one.
+	 */
+	private boolean changed;
+
+	/**
+	 * Creates an empty table.
+	 */
+	KeywordMap() {
+		root = EMPTY;
+	}
+
+	private KeywordMap(Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * Returns a table with the keys this one has now, which later changes of either table
+	 * do not show in the other. This does not copy anything.
+	 *
+	 * @return Snapshot of this table
+	 */
+	KeywordMap snapshot()
+	{
+		return new KeywordMap(root, size);
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean containsKey(Object key)
+	{
+		return find(key) != null;
+	}
+
+	public ArrayList<Occurrence> get(Object key)
+	{
+		Entry e = find(key);
+		return (e == null) ? null : e.getValue();
+	}
+
+	public ArrayList<Occurrence> put(String key, ArrayList<Occurrence> value)
+	{
+		Entry old = find(key);
+		if ((old != null) && (old.getValue() == value))
+			return value;
+
+		changed = false;
+		root = put(root, 0, new Entry(hash(key), key, value));
+		if (changed)
+			size++;
+		return (old == null) ? null : old.getValue();
+	}
+
+	public ArrayList<Occurrence> remove(Object key)
+	{
+		Entry old = find(key);
+		if (old == null)
+			return null;
+
+		Node n = (Node) removeSlot(root, 0, old);
+		root = (n == null) ? EMPTY : n;
+		size--;
+		return old.getValue();
+	}
+
+	public void clear()
+	{
+		root = EMPTY;
+		size = 0;
+	}
+
+	public Set<Map.Entry<String,ArrayList<Occurrence>>> entrySet()
+	{
+		final Node top = root;
+		final int count = size;
+		return new AbstractSet<Map.Entry<String,ArrayList<Occurrence>>>() {
+			public int size() {
+				return count;
+			}
+
+			public Iterator<Map.Entry<String,ArrayList<Occurrence>>> iterator() {
+				return new EntryIterator(top);
+			}
+		};
+	}
+
+	/**
+	 * Spreads the bits of a key's hash code, so that keys that differ only in their high
+	 * bits still part at the first levels.
+	 */
+	private static int hash(Object key)
+	{
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Returns the entry of a key, null if it is not in the table.
+	 */
+	private Entry find(Object key)
+	{
+		int hash = hash(key);
+		Node n = root;
+		for (int shift = 0; ; shift += BITS)
+		{
+			if (shift >= 32)
+			{
+				for (Object slot : n.slots)
+				{
+					if (key.equals(((Entry) slot).getKey()))
+						return (Entry) slot;
+				}
+				return null;
+			}
+
+			int bit = 1 << ((hash >>> shift) & 31);
+			if ((n.bitmap & bit) == 0)
+				return null;
+			Object slot = n.slots[Integer.bitCount(n.bitmap & (bit - 1))];
+			if (slot instanceof Node)
+				n = (Node) slot;
+			else
+				return key.equals(((Entry) slot).getKey()) ? (Entry) slot : null;
+		}
+	}
+
+	/**
+	 * Returns a copy of a node with an entry put in it, at a given level.
+	 */
+	private Node put(Node n, int shift, Entry e)
+	{
+		if (shift >= 32)
+		{
+			for (int i = 0; i < n.slots.length; i++)
+			{
+				if (e.getKey().equals(((Entry) n.slots[i]).getKey()))
+					return new Node(0, replace(n.slots, i, e));
+			}
+			changed = true;
+			return new Node(0, insert(n.slots, n.slots.length, e));
+		}
+
+		int bit = 1 << ((e.hash >>> shift) & 31);
+		int i = Integer.bitCount(n.bitmap & (bit - 1));
+		if ((n.bitmap & bit) == 0)
+		{
+			changed = true;
+			return new Node(n.bitmap | bit, insert(n.slots, i, e));
+		}
+
+		Object slot = n.slots[i];
+		if (slot instanceof Node)
+			return new Node(n.bitmap, replace(n.slots, i, put((Node) slot, shift + BITS, e)));
+
+		Entry other = (Entry) slot;
+		if (e.getKey().equals(other.getKey()))
+			return new Node(n.bitmap, replace(n.slots, i, e));
+		changed = true;
+		return new Node(n.bitmap, replace(n.slots, i, pair(shift + BITS, other, e)));
+	}
+
+	/**
+	 * Returns a node with two entries whose hash codes are the same up to a given level.
+	 */
+	private static Node pair(int shift, Entry a, Entry b)
+	{
+		if (shift >= 32)
+			return new Node(0, new Object[] { a, b });
+
+		int sliceA = (a.hash >>> shift) & 31;
+		int sliceB = (b.hash >>> shift) & 31;
+		if (sliceA == sliceB)
+			return new Node(1 << sliceA, new Object[] { pair(shift + BITS, a, b) });
+		Object[] slots = (sliceA < sliceB) ? new Object[] { a, b } : new Object[] { b, a };
+		return new Node((1 << sliceA) | (1 << sliceB), slots);
+	}
+
+	/**
+	 * Returns a copy of a node with an entry that is in it removed, at a given level, or
+	 * null if the node would be left empty. A node that would be left with a single entry
+	 * is replaced by the entry, except at the root.
+	 */
+	private Object removeSlot(Node n, int shift, Entry e)
+	{
+		if (shift >= 32)
+		{
+			if (n.slots.length == 1)
+				return null;
+			for (int i = 0; ; i++)
+			{
+				if (n.slots[i] == e)
+					return (n.slots.length == 2) ? n.slots[1 - i] : new Node(0, delete(n.slots, i));
+			}
+		}
+
+		int bit = 1 << ((e.hash >>> shift) & 31);
+		int i = Integer.bitCount(n.bitmap & (bit - 1));
+		Object slot = n.slots[i];
+		Object rest = (slot instanceof Node) ? removeSlot((Node) slot, shift + BITS, e) : null;
+		if (rest != null)
+		{
+			if ((n.slots.length == 1) && (rest instanceof Entry) && (shift > 0))
+				return rest;
+			return new Node(n.bitmap, replace(n.slots, i, rest));
+		}
+
+		if (n.slots.length == 1)
+			return null;
+		if ((n.slots.length == 2) && (shift > 0) && (n.slots[1 - i] instanceof Entry))
+			return n.slots[1 - i];
+		return new Node(n.bitmap & ~bit, delete(n.slots, i));
+	}
+
+	private static Object[] replace(Object[] slots, int i, Object slot)
+	{
+		Object[] copy = slots.clone();
+		copy[i] = slot;
+		return copy;
+	}
+
+	private static Object[] insert(Object[] slots, int i, Object slot)
+	{
+		Object[] copy = new Object[slots.length + 1];
+		System.arraycopy(slots, 0, copy, 0, i);
+		copy[i] = slot;
+		System.arraycopy(slots, i, copy, i + 1, slots.length - i);
+		return copy;
+	}
+
+	private static Object[] delete(Object[] slots, int i)
+	{
+		Object[] copy = new Object[slots.length - 1];
+		System.arraycopy(slots, 0, copy, 0, i);
+		System.arraycopy(slots, i + 1, copy, i, slots.length - i - 1);
+		return copy;
+	}
+
+	/**
+	 * Iterator over the entries of a trie, depth first.
+	 */
+	private static final class EntryIterator implements Iterator<Map.Entry<String,ArrayList<Occurrence>>> {
+		private Node[] nodes = new Node[8];
+		private int[] positions = new int[8];
+		private int depth;
+		private Entry next;
+
+		EntryIterator(Node root) {
+			nodes[0] = root;
+			advance();
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public Map.Entry<String,ArrayList<Occurrence>> next() {
+			if (next == null)
+				throw new NoSuchElementException();
+			Entry e = next;
+			advance();
+			return e;
+		}
+
+		private void advance() {
+			next = null;
+			while (depth >= 0)
+			{
+				Node n = nodes[depth];
+				if (positions[depth] == n.slots.length)
+				{
+					depth--;
+					continue;
+				}
+
+				Object slot = n.slots[positions[depth]++];
+				if (slot instanceof Entry)
+				{
+					next = (Entry) slot;
+					return;
+				}
+				depth++;
+				nodes[depth] = (Node) slot;
+				positions[depth] = 0;
+			}
+		}
+	}
+}
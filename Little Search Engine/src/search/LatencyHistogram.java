@@ -0,0 +1,149 @@
+package search;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. Every power of two is split into
+ * eight buckets, so a recorded value is known to within 12.5%, and percentiles are
+ * reported as the upper bound of the bucket they fall in.
+ * 
+ */
+class LatencyHistogram {
+
+	/**
+	 * Number of buckets per power of two.
+	 */
+	private static final int SUB_BUCKETS = 8;
+
+	/**
+	 * Count of values in each bucket.
+	 */
+	private AtomicLongArray buckets;
+
+	/**
+	 * Number of values recorded.
+	 */
+	private AtomicLong count;
+
+	/**
+	 * Sum of values recorded.
+	 */
+	private AtomicLong total;
+
+	/**
+	 * Largest value recorded.
+	 */
+	private AtomicLong max;
+
+	/**
+	 * Initializes an empty histogram.
+	 */
+	public LatencyHistogram() {
+		buckets = new AtomicLongArray(SUB_BUCKETS + 61 * SUB_BUCKETS);
+		count = new AtomicLong();
+		total = new AtomicLong();
+		max = new AtomicLong();
+	}
+
+	/**
+	 * Records a latency.
+	 * 
+	 * @param nanos Latency in nanoseconds
+	 */
+	public void record(long nanos)
+	{
+		if (nanos < 0)
+			nanos = 0;
+		buckets.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+
+		long m;
+		while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos))
+			;
+	}
+
+	/**
+	 * Returns the number of latencies recorded.
+	 * 
+	 * @return Number of latencies
+	 */
+	public long count()
+	{
+		return count.get();
+	}
+
+	/**
+	 * Returns the mean of the latencies recorded.
+	 * 
+	 * @return Mean latency in nanoseconds, 0 if none were recorded
+	 */
+	public long mean()
+	{
+		long n = count.get();
+		return (n == 0) ? 0 : total.get() / n;
+	}
+
+	/**
+	 * Returns the largest latency recorded.
+	 * 
+	 * @return Largest latency in nanoseconds
+	 */
+	public long max()
+	{
+		return max.get();
+	}
+
+	/**
+	 * Returns a percentile of the latencies recorded.
+	 * 
+	 * @param p Percentile, between 0 and 100
+	 * @return Upper bound of the bucket of the percentile in nanoseconds, 0 if none were recorded
+	 */
+	public long percentile(double p)
+	{
+		long n = count.get();
+		if (n == 0)
+			return 0;
+
+		long rank = (long) Math.ceil(p / 100 * n);
+		long seen = 0;
+		for (int i = 0; i < buckets.length(); i++)
+		{
+			seen += buckets.get(i);
+			if (seen >= rank && seen > 0)
+				return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	/**
+	 * Clears the histogram.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < buckets.length(); i++)
+			buckets.set(i, 0);
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	private static int bucket(long value)
+	{
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		int exp = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exp - 3)) - SUB_BUCKETS;
+		return SUB_BUCKETS + (exp - 3) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound(int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int exp = (bucket - SUB_BUCKETS) / SUB_BUCKETS + 3;
+		int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((long) (SUB_BUCKETS + sub + 1) << (exp - 3)) - 1;
+	}
+}
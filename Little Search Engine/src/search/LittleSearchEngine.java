@@ -1,45 +1,12 @@
 package search;
 
 import java.io.*;
+import java.lang.management.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
 
-/**
- * This class encapsulates an occurrence of a keyword in a document. It stores the
- * document name, and the frequency of occurrence in that document. Occurrences are
- * associated with keywords in an index hash table.
- * 
- * @author Sesh Venugopal
- * 
- */
-class Occurrence {
-	/**
-	 * Document in which a keyword occurs.
-	 */
-	String document;
-	
-	/**
-	 * The frequency (number of times) the keyword occurs in the above document.
-	 */
-	int frequency;
-	
-	/**
-	 * Initializes this occurrence with the given document,frequency pair.
-	 * 
-	 * @param doc Document name
-	 * @param freq Frequency
-	 */
-	public Occurrence(String doc, int freq) {
-		document = doc;
-		frequency = freq;
-	}
-	
-	/* (non-Javadoc)
-	 * @see java.lang.Object#toString()
-	 */
-	public String toString() {
-		return "(" + document + "," + frequency + ")";
-	}
-}
+import javax.management.*;
 
 /**
  * This class builds an index of keywords. Each keyword maps to a set of documents in
@@ -53,20 +20,112 @@ public class LittleSearchEngine {
 	 * This is a hash table of all keywords. The key is the actual keyword, and the associated value is
 	 * an array list of all occurrences of the keyword in documents. The array list is maintained in descending
 	 * order of occurrence frequencies.
+	 * 
+	 * The table is persistent (see KeywordMap), so a snapshot of it costs nothing. When
+	 * documents are added with publishDocuments, this field is replaced by a changed snapshot
+	 * on every batch instead of being changed in place, and neither the old table nor its
+	 * lists are changed after that. Searches read the field once, so they see a consistent
+	 * snapshot.
 	 */
-	HashMap<String,ArrayList<Occurrence>> keywordsIndex;
+	volatile KeywordMap keywordsIndex;
 	
 	/**
-	 * The hash table of all noise words - mapping is from word to itself.
+	 * Sorted dictionary of the keywords in keywordsIndex, used to expand keyword patterns
+	 * in wildcardSearch. Keywords of the loaded segment are expanded with the segment's own
+	 * sorted keyword table instead. publishDocuments adds the new keywords of a batch to it
+	 * before the batch is published, which searches can run alongside.
+	 */
+	volatile TermDictionary terms;
+	
+	/**
+	 * The hash table of all noise words - mapping is from word to itself. It is only
+	 * changed by loadNoiseWords and loadIndex, which compile it into noiseFilter again.
 	 */
 	HashMap<String,String> noiseWords;
 	
+	/**
+	 * Index segment loaded with loadIndex, null if none. Keywords that are not in
+	 * keywordsIndex are looked up in this segment.
+	 */
+	IndexSegment segment;
+	
+	/**
+	 * Noise words compiled into a perfect hash table for getKeyWord and the tokenizer,
+	 * built from the noiseWords hash table every time noise words are loaded.
+	 */
+	volatile NoiseWords noiseFilter;
+	
+	/**
+	 * Cache of search results, null if caching is not enabled.
+	 */
+	QueryCache queryCache;
+	
+	/**
+	 * Keywords of every document merged into keywordsIndex, so that a document can be
+	 * removed again without being re-scanned. The Occurrence objects are the ones held
+	 * in keywordsIndex.
+	 */
+	HashMap<String,HashMap<String,Occurrence>> documentKeywords;
+	
+	/**
+	 * Length of every document in documentKeywords, which is the sum of the frequencies of
+	 * its keywords, counted when the document is merged. Used for BM25 ranking.
+	 */
+	HashMap<String,Integer> documentLengths;
+	
+	/**
+	 * Lengths of the documents in the loaded segment, counted from the segment the first
+	 * time it is ranked with bm25Search. Null if not counted yet.
+	 */
+	HashMap<String,Integer> segmentLengths;
+	
+	/**
+	 * Scorer for bm25Search, built at the end of makeIndex (or on first use), and kept up to
+	 * date as documents are added and removed, until its statistics are out of date and a
+	 * new one is built.
+	 */
+	volatile Bm25Scorer bm25Scorer;
+	
+	/**
+	 * Engine for boolean queries, created on first use, and kept up to date as documents
+	 * are added and removed. It is dropped when the whole index is replaced.
+	 */
+	volatile QueryEngine queryEngine;
+	
+	/**
+	 * Indexing and search counters.
+	 */
+	IndexMetrics metrics;
+	
+	/**
+	 * Listeners to be told about scanned documents and completed searches.
+	 */
+	CopyOnWriteArrayList<SearchListener> listeners;
+	
+	/**
+	 * Whether loadKeyWords records the positions of keywords, for phraseSearch and
+	 * nearSearch.
+	 */
+	boolean positional;
+	
+	/**
+	 * Pool on which searchBatch and searchAsync run searches.
+	 */
+	ForkJoinPool searchPool;
+	
 	/**
 	 * Creates the keyWordsIndex and noiseWords hash tables.
 	 */
 	public LittleSearchEngine() {
-		keywordsIndex = new HashMap<String,ArrayList<Occurrence>>(1000,2.0f);
+		keywordsIndex = new KeywordMap();
+		terms = new TermDictionary();
 		noiseWords = new HashMap<String,String>(100,2.0f);
+		noiseFilter = new NoiseWords(noiseWords.keySet());
+		documentKeywords = new HashMap<String,HashMap<String,Occurrence>>();
+		documentLengths = new HashMap<String,Integer>();
+		metrics = new IndexMetrics();
+		listeners = new CopyOnWriteArrayList<SearchListener>();
+		searchPool = ForkJoinPool.commonPool();
 	}
 	
 	/**
@@ -82,24 +141,496 @@ public class LittleSearchEngine {
 	public void makeIndex(String docsFile, String noiseWordsFile) 
 	throws FileNotFoundException {
 		// load noise words to hash table
+		loadNoiseWords(noiseWordsFile);
+		
+		// index all keywords, with the scorer built once at the end
+		bm25Scorer = null;
+		queryEngine = null;
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext())
+			indexDocument(sc.next());
+		buildScorer();
+	}
+
+	/**
+	 * Scans a document and merges its keywords into the index, as makeIndex does for each
+	 * document it lists. Unlike addDocument, a document that is already in the index is
+	 * merged in again.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 */
+	void indexDocument(String docFile)
+	throws FileNotFoundException
+	{
+		mergeKeyWords(loadKeyWords(docFile));
+	}
+
+	/**
+	 * Parallel version of makeIndex. Documents are scanned by an IngestPipeline: this thread
+	 * reads them, in windows of a bounded size, while a pool of worker threads tokenizes the
+	 * windows and builds the keywords hash table of each document. Very large documents, and
+	 * all documents when positions are recorded, are streamed by a worker instead, as
+	 * loadKeyWords does. The keyword space is then split into one stripe per thread, and each
+	 * worker merges the keywords of its own stripe for all documents, so no two workers ever touch the same
+	 * Occurrence list and no lock is needed. Documents are merged in the order in which they
+	 * are listed in docsFile, so the resulting index (including the order of equal frequencies
+	 * in each Occurrence list) is identical to the one built by makeIndex.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @param threads Number of worker threads, a value less than 2 falls back to makeIndex
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public void makeIndex(String docsFile, String noiseWordsFile, int threads)
+	throws FileNotFoundException
+	{
+		if (threads < 2)
+		{
+			makeIndex(docsFile, noiseWordsFile);
+			return;
+		}
+
+		loadNoiseWords(noiseWordsFile);
+		bm25Scorer = null;
+		queryEngine = null;
+
+		ArrayList<String> docs = new ArrayList<String>();
+		Scanner sc = new Scanner(new File(docsFile));
+		while (sc.hasNext())
+			docs.add(sc.next());
+
+		// scan all documents, reading on this thread while the workers tokenize
+		final ArrayList<HashMap<String,Occurrence>> allKws = new IngestPipeline(this, noiseFilter, threads).scan(docs);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try
+		{
+			// merge, one task per stripe of the keyword space
+			long mergeStart = System.nanoTime();
+			ArrayList<Future<HashMap<String,ArrayList<Occurrence>>>> merges = new ArrayList<Future<HashMap<String,ArrayList<Occurrence>>>>();
+			for (int stripe = 0; stripe < threads; stripe++)
+			{
+				final int s = stripe;
+				final int stripes = threads;
+				merges.add(pool.submit(new Callable<HashMap<String,ArrayList<Occurrence>>>() {
+					public HashMap<String,ArrayList<Occurrence>> call() {
+						return mergeStripe(allKws, s, stripes);
+					}
+				}));
+			}
+
+			for (HashMap<String,Occurrence> kws : allKws)
+				recordDocument(kws);
+
+			for (Future<HashMap<String,ArrayList<Occurrence>>> merge : merges)
+			{
+				HashMap<String,ArrayList<Occurrence>> merged = await(merge);
+				keywordsIndex.putAll(merged);
+				terms.addAll(merged.keySet());
+				if (queryCache != null)
+				{
+					for (String key : merged.keySet())
+						queryCache.invalidate(key);
+				}
+			}
+			metrics.documentsMerged(allKws.size(), System.nanoTime() - mergeStart);
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		buildScorer();
+	}
+
+	/**
+	 * Adds a single document to the index, without touching the Occurrence lists of any
+	 * keyword that is not in the document.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @throws IllegalArgumentException If the document is already in the index
+	 */
+	public void addDocument(String docFile)
+	throws FileNotFoundException
+	{
+		if (documentKeywords.containsKey(docFile) || inSegment(docFile))
+			throw new IllegalArgumentException(docFile + " is already indexed");
+		mergeKeyWords(loadKeyWords(docFile));
+	}
+
+	/**
+	 * Removes a document from the index. Only the Occurrence lists of the keywords in the
+	 * document are changed: the document's occurrence is located in each list by a binary
+	 * search on its frequency, and removed, which keeps the list in descending order of
+	 * frequency. Keywords that no longer occur in any document are removed from the index.
+	 * Only documents that were merged into this index (not those in a loaded segment) can
+	 * be removed.
+	 * 
+	 * @param docFile Name of the document file
+	 * @return True if the document was removed, false if it was not in the index
+	 */
+	public boolean removeDocument(String docFile)
+	{
+		HashMap<String,Occurrence> kws = documentKeywords.remove(docFile);
+		if (kws == null)
+			return false;
+		documentLengths.remove(docFile);
+		Bm25Scorer scorer = bm25Scorer;
+		if (scorer != null)
+			scorer.remove(docFile);
+		QueryEngine engine = queryEngine;
+
+		for (String key : kws.keySet())
+		{
+			ArrayList<Occurrence> oc = keywordsIndex.get(key);
+			if (oc == null)
+				continue;
+
+			int pos = findOccurrence(oc, kws.get(key));
+			if (pos >= 0)
+				oc.remove(pos);
+
+			// an empty list still hides the keyword's postings in the loaded segment
+			if (oc.isEmpty() && ((segment == null) || (segment.get(key) == null)))
+			{
+				keywordsIndex.remove(key);
+				terms.remove(key);
+				oc = null;
+			}
+			if (scorer != null)
+				scorer.removed(key, oc, docFile);
+			if (engine != null)
+				engine.removed(key, oc, docFile);
+
+			if (queryCache != null)
+				queryCache.invalidate(key);
+		}
+		if ((scorer != null) && scorer.isStale())
+			buildScorer(keywordsIndex);
+		return true;
+	}
+
+	/**
+	 * Re-scans a document that has changed on disk, and replaces its occurrences in the
+	 * index. The cost is proportional to the size of the document, not of the index.
+	 * Documents in a loaded segment cannot be updated, since their postings cannot be
+	 * removed from the segment, and the document would be listed twice.
+	 * 
+	 * @param docFile Name of the document file
+	 * @throws FileNotFoundException If the document file is not found on disk
+	 * @throws IllegalArgumentException If the document is in the loaded segment
+	 */
+	public void updateDocument(String docFile)
+	throws FileNotFoundException
+	{
+		if (inSegment(docFile))
+			throw new IllegalArgumentException(docFile + " is in the loaded index segment");
+		// scan first, so the old occurrences stay if the file is gone
+		HashMap<String,Occurrence> kws = loadKeyWords(docFile);
+		removeDocument(docFile);
+		mergeKeyWords(kws);
+	}
+
+	/**
+	 * Adds a batch of documents to the index while it is being searched by other threads.
+	 * The new index is built on the side, in a snapshot of the keywords table, which shares
+	 * everything with the current table except the keywords of the batch: the Occurrence
+	 * list of every keyword in the batch is copied before new occurrences are inserted in
+	 * it, and put in the snapshot. The cost of a batch is therefore proportional to the
+	 * postings of its keywords, not to the size of the index. The new table is then published
+	 * in a single write of keywordsIndex. Searches never wait on this method, and each search
+	 * sees either none or all of the batch.
+	 * 
+	 * Batches are published one at a time. While the index is being searched concurrently,
+	 * it must only be changed through this method, since mergeKeyWords, addDocument and
+	 * removeDocument change Occurrence lists in place.
+	 * 
+	 * @param docFiles Names of the document files to add
+	 * @throws FileNotFoundException If any of the document files is not found on disk, in which
+	 *         case nothing is published
+	 */
+	public synchronized void publishDocuments(List<String> docFiles)
+	throws FileNotFoundException
+	{
+		ArrayList<HashMap<String,Occurrence>> allKws = new ArrayList<HashMap<String,Occurrence>>();
+		for (String docFile : docFiles)
+			allKws.add(loadKeyWords(docFile));
+
+		long mergeStart = System.nanoTime();
+		for (HashMap<String,Occurrence> kws : allKws)
+			recordDocument(kws);
+
+		KeywordMap next = keywordsIndex.snapshot();
+		ArrayList<String> added = new ArrayList<String>();
+		HashMap<String,ArrayList<Occurrence>> copied = new HashMap<String,ArrayList<Occurrence>>();
+		for (HashMap<String,Occurrence> kws : allKws)
+		{
+			for (String key : kws.keySet())
+			{
+				ArrayList<Occurrence> oc = next.get(key);
+				ArrayList<Occurrence> batch = copied.get(key);
+				if (batch == null)
+				{
+					if (oc == null)
+						oc = occurrences(key);
+					oc = (oc == null) ? new ArrayList<Occurrence>() : new ArrayList<Occurrence>(oc);
+					next.put(key, oc);
+					if (!keywordsIndex.containsKey(key))
+						added.add(key);
+					batch = new ArrayList<Occurrence>();
+					copied.put(key, batch);
+				}
+				oc.add(kws.get(key));
+				insertLastOccurrence(oc);
+				batch.add(kws.get(key));
+			}
+		}
+
+		// the scorer has the new lists before they can be looked up
+		Bm25Scorer scorer = bm25Scorer;
+		if ((scorer != null) && scorer.isStale())
+			buildScorer(next);
+		else if (scorer != null)
+		{
+			for (Map.Entry<String,ArrayList<Occurrence>> e : copied.entrySet())
+			{
+				ArrayList<Occurrence> old = keywordsIndex.get(e.getKey());
+				scorer.copied(e.getKey(), (old != null) ? old : segment, next.get(e.getKey()), e.getValue());
+			}
+		}
+		QueryEngine engine = queryEngine;
+		if (engine != null)
+		{
+			for (Map.Entry<String,ArrayList<Occurrence>> e : copied.entrySet())
+			{
+				ArrayList<Occurrence> old = keywordsIndex.get(e.getKey());
+				engine.copied(e.getKey(), (old != null) ? old : segment, next.get(e.getKey()), e.getValue());
+			}
+		}
+
+		// new keywords are in the dictionary before their postings can be looked up
+		terms.addAll(added);
+		keywordsIndex = next;
+		metrics.documentsMerged(allKws.size(), System.nanoTime() - mergeStart);
+
+		if (queryCache != null)
+		{
+			for (String key : copied.keySet())
+				queryCache.invalidate(key);
+		}
+	}
+
+	/**
+	 * Returns the position of an occurrence in a list in descending order of frequency,
+	 * by binary searching for the first occurrence with the same frequency and then
+	 * scanning the occurrences with that frequency.
+	 */
+	private static int findOccurrence(ArrayList<Occurrence> occs, Occurrence target)
+	{
+		int low = 0;
+		int high = occs.size();
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (occs.get(mid).frequency > target.frequency)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		for (int i = low; (i < occs.size()) && (occs.get(i).frequency == target.frequency); i++)
+		{
+			Occurrence oc = occs.get(i);
+			if ((oc == target) || oc.document.equals(target.document))
+				return i;
+		}
+		return -1;
+	}
+
+	private boolean inSegment(String docFile)
+	{
+		return (segment != null) && segment.containsDocument(docFile);
+	}
+
+	private void recordDocument(HashMap<String,Occurrence> kws)
+	{
+		Iterator<Occurrence> it = kws.values().iterator();
+		if (!it.hasNext())
+			return;
+		String docFile = it.next().document;
+		documentKeywords.put(docFile, kws);
+
+		int length = 0;
+		for (Occurrence oc : kws.values())
+			length += oc.frequency;
+		documentLengths.put(docFile, length);
+
+		Bm25Scorer scorer = bm25Scorer;
+		if (scorer != null)
+			scorer.add(docFile, length);
+	}
+
+	void loadNoiseWords(String noiseWordsFile)
+	throws FileNotFoundException
+	{
 		Scanner sc = new Scanner(new File(noiseWordsFile));
 		while (sc.hasNext()) {
 			String word = sc.next();
 			noiseWords.put(word,word);
 		}
-		
-		// index all keywords
-		sc = new Scanner(new File(docsFile));
-		while (sc.hasNext()) {
-			String docFile = sc.next();
-			HashMap<String,Occurrence> kws = loadKeyWords(docFile);
-			mergeKeyWords(kws);
+		noiseFilter = new NoiseWords(noiseWords.keySet());
+	}
+
+	private HashMap<String,ArrayList<Occurrence>> mergeStripe(ArrayList<HashMap<String,Occurrence>> allKws, int stripe, int stripes)
+	{
+		HashMap<String,ArrayList<Occurrence>> merged = new HashMap<String,ArrayList<Occurrence>>();
+
+		for (HashMap<String,Occurrence> kws : allKws)
+		{
+			for (String key : kws.keySet())
+			{
+				if ((key.hashCode() & 0x7fffffff) % stripes != stripe)
+					continue;
+
+				ArrayList<Occurrence> oc = merged.get(key);
+				if (oc == null)
+				{
+					// keywordsIndex is only read while the stripes are merged
+					oc = occurrences(key);
+					if (oc == null)
+						oc = new ArrayList<Occurrence>();
+					merged.put(key, oc);
+				}
+
+				oc.add(kws.get(key));
+				insertLastOccurrence(oc);
+			}
+		}
+		return merged;
+	}
+
+	static <T> T await(Future<T> task)
+	throws FileNotFoundException
+	{
+		try
+		{
+			return task.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("indexing was interrupted", e);
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof FileNotFoundException)
+				throw (FileNotFoundException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Saves the keywords index, including any loaded segment it was built on, to a segment
+	 * file that can later be reopened with loadIndex.
+	 * 
+	 * @param indexFile Name of the segment file to write
+	 * @throws IOException If the file cannot be written
+	 */
+	public void saveIndex(String indexFile)
+	throws IOException
+	{
+		KeywordMap index = keywordsIndex;
+		if (segment != null)
+		{
+			index = keywordsIndex.snapshot();
+			for (String key : segment.keywords())
+			{
+				if (!index.containsKey(key))
+					index.put(key, occurrences(key));
+			}
 		}
+		IndexSegment.write(new CompactIndex(index), noiseWords.keySet(), new File(indexFile));
+	}
+
+	/**
+	 * Replaces the keywords index and noise words with those of a segment file written by
+	 * saveIndex. The file is memory-mapped, and searches read its postings directly from
+	 * the mapping instead of rebuilding keywordsIndex. Documents merged after loading are
+	 * added on top of the segment.
+	 * 
+	 * @param indexFile Name of the segment file to load
+	 * @throws IOException If the file cannot be read or is not a segment file
+	 */
+	public void loadIndex(String indexFile)
+	throws IOException
+	{
+		IndexSegment loaded = IndexSegment.open(new File(indexFile));
+		keywordsIndex.clear();
+		documentKeywords.clear();
+		documentLengths.clear();
+		segmentLengths = null;
+		noiseWords.clear();
+		for (String word : loaded.noiseWords())
+			noiseWords.put(word, word);
+		noiseFilter = new NoiseWords(noiseWords.keySet());
+		terms = new TermDictionary();
+		segment = loaded;
+		queryEngine = null;
+		bm25Scorer = null;
+		if (queryCache != null)
+			queryCache.clear();
+	}
+
+	/**
+	 * Returns the Occurrence list of a keyword. If the keyword only occurs in the
+	 * loaded segment, a new list is decoded from it.
+	 */
+	private ArrayList<Occurrence> occurrences(String keyword)
+	{
+		ArrayList<Occurrence> oc = keywordsIndex.get(keyword);
+		if ((oc == null) && (segment != null))
+		{
+			Postings postings = segment.get(keyword);
+			if (postings != null)
+			{
+				oc = new ArrayList<Occurrence>(postings.size() + 1);
+				for (int i = 0; i < postings.size(); i++)
+					oc.add(postings.get(i));
+			}
+		}
+		return oc;
+	}
+
+	/**
+	 * Returns the postings of a keyword, without copying them out of keywordsIndex or
+	 * the loaded segment.
+	 */
+	private Postings postings(Map<String,ArrayList<Occurrence>> index, String keyword)
+	{
+		ArrayList<Occurrence> oc = index.get(keyword);
+		if (oc != null)
+			return new OccurrenceList(oc);
+		if (segment != null)
+			return segment.get(keyword);
+		return null;
 	}
 
 	/**
 	 * Scans a document, and loads all keywords found into a hash table of keyword occurrences
-	 * in the document. Uses the getKeyWord method to separate keywords from other words.
+	 * in the document. Keywords are separated from other words by a KeyWordTokenizer, which
+	 * applies the same rules as the getKeyWord method.
+	 * 
+	 * The document is read through a fixed-size buffer, and the hash table has one entry per
+	 * distinct keyword, so the memory taken by a scan depends on the vocabulary of the
+	 * document, not on its size: a document of several GB is scanned in the same memory as a
+	 * short one with the same keywords. Only recorded positions grow with the size of the
+	 * document, by about one or two bytes per keyword, since they are kept in the index.
 	 * 
 	 * @param docFile Name of the document file to be scanned and loaded
 	 * @return Hash table of keywords in the given document, each associated with an Occurrence object
@@ -111,52 +642,233 @@ public class LittleSearchEngine {
 		if (docFile == null)
 			throw new FileNotFoundException();
 
-		HashMap<String, Occurrence> map = new HashMap<String, Occurrence>();
+		long start = System.nanoTime();
+		HashMap<String,Occurrence> map;
+		KeyWordTokenizer tokens = new KeyWordTokenizer(new FileReader(docFile), noiseFilter);
+		try
+		{
+			map = countKeyWords(docFile, tokens, positional);
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("error reading " + docFile, e);
+		}
+		finally
+		{
+			try
+			{
+				tokens.close();
+			}
+			catch (IOException e)
+			{
+			}
+		}
+		scanned(docFile, tokens, map.size(), start);
+		return map;
+	}
 
-		Scanner sc = new Scanner(new File(docFile));
+	/**
+	 * Counts the keywords that a tokenizer returns, and records their positions if asked to.
+	 */
+	static HashMap<String,Occurrence> countKeyWords(String docFile, KeyWordTokenizer tokens, boolean withPositions)
+	throws IOException
+	{
+		HashMap<String, Occurrence> map = new HashMap<String, Occurrence>();
+		HashMap<String,PositionList.Builder> positions = withPositions ? new HashMap<String,PositionList.Builder>() : null;
 
-		while (sc.hasNext())
+		String key;
+		while ((key = tokens.next()) != null)
 		{
-			String key = getKeyWord(sc.next());
-			if (key != null)
+			Occurrence oc = map.get(key);
+			if (oc != null)
+				oc.frequency++;
+			else
+				map.put(key, new Occurrence(docFile, 1));
+
+			if (positions != null)
 			{
-				if (map.containsKey(key))
-				{
-					Occurrence oc = map.get(key);
-					oc.frequency++;
-				}
-				else
+				PositionList.Builder b = positions.get(key);
+				if (b == null)
 				{
-					Occurrence oc = new Occurrence(docFile, 1);
-					map.put(key, oc);
+					b = new PositionList.Builder();
+					positions.put(key, b);
 				}
+				b.add(tokens.position());
 			}
 		}
+
+		if (positions != null)
+		{
+			for (Map.Entry<String,PositionList.Builder> e : positions.entrySet())
+				map.get(e.getKey()).positions = e.getValue().encode();
+		}
 		return map;
 	}
-	
+	
+	private void scanned(String docFile, KeyWordTokenizer tokens, int keywords, long start)
+	{
+		scanned(docFile, tokens.tokens(), tokens.keywords(), tokens.noiseWords(), new File(docFile).length(), keywords, start);
+	}
+
+	void scanned(String docFile, long tokens, long keywordsRetained, long noiseWords, long bytes, int keywords, long start)
+	{
+		metrics.documentScanned(tokens, keywordsRetained, noiseWords, bytes);
+		if (!listeners.isEmpty())
+		{
+			long nanos = System.nanoTime() - start;
+			for (SearchListener l : listeners)
+				l.documentScanned(docFile, keywords, nanos);
+		}
+	}
+
+	/**
+	 * Merges the keywords for a single document into the master keywordsIndex
+	 * hash table. For each keyword, its Occurrence in the current document
+	 * must be inserted in the correct place (according to descending order of
+	 * frequency) in the same keyword's Occurrence list in the master hash table. 
+	 * This is done by calling the insertLastOccurrence method.
+	 * 
+	 * @param kws Keywords hash table for a document
+	 */
+	public void mergeKeyWords(HashMap<String,Occurrence> kws)
+	{
+		long start = System.nanoTime();
+		recordDocument(kws);
+		Bm25Scorer scorer = bm25Scorer;
+		QueryEngine engine = queryEngine;
+
+		for (String key : kws.keySet())
+		{
+			ArrayList<Occurrence> oc = occurrences(key);
+
+			if (oc == null)
+				oc = new ArrayList<Occurrence>();
+			
+			oc.add(kws.get(key));
+			insertLastOccurrence(oc);
+			keywordsIndex.put(key, oc);
+			terms.add(key);
+			if (scorer != null)
+				scorer.added(key, oc, kws.get(key));
+			if (engine != null)
+				engine.added(key, oc, kws.get(key));
+
+			if (queryCache != null)
+				queryCache.invalidate(key);
+		}
+		if ((scorer != null) && scorer.isStale())
+			buildScorer(keywordsIndex);
+		metrics.documentsMerged(1, System.nanoTime() - start);
+	}
+	
+	/**
+	 * Puts a bounded cache of search results in front of top5search and topKSearch, replacing
+	 * any cache already in place. When the cache is full, the least recently used query is
+	 * evicted. Cached queries that use a keyword are dropped whenever the keyword's Occurrence
+	 * list changes, so cached results are never stale.
+	 * 
+	 * @param capacity Maximum number of cached queries
+	 */
+	public void enableQueryCache(int capacity)
+	{
+		queryCache = new QueryCache(capacity);
+	}
+
+	/**
+	 * Removes the cache of search results, if any.
+	 */
+	public void disableQueryCache()
+	{
+		queryCache = null;
+	}
+
+	/**
+	 * Starts recording the positions of keywords in documents scanned from now on, so
+	 * that they can be found by phraseSearch and nearSearch. Positions are kept with each
+	 * Occurrence, as the gaps between successive positions in variable-byte integers, so
+	 * they take about one or two bytes per keyword in the text, plus an array of about 16
+	 * bytes per Occurrence. Documents in a loaded segment have no positions.
+	 */
+	public void enablePositions()
+	{
+		positional = true;
+	}
+
+	/**
+	 * Stops recording the positions of keywords. Positions already recorded are kept.
+	 */
+	public void disablePositions()
+	{
+		positional = false;
+	}
+
+	/**
+	 * Returns the cache of search results, from which hit, miss and eviction counts
+	 * can be read.
+	 * 
+	 * @return Query cache, null if caching is not enabled
+	 */
+	public QueryCache getQueryCache()
+	{
+		return queryCache;
+	}
+
+	/**
+	 * Returns the indexing and search counters of this engine.
+	 * 
+	 * @return Metrics
+	 */
+	public IndexMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	/**
+	 * Registers the metrics of this engine with the platform MBean server, under the name
+	 * "search:type=LittleSearchEngine,name=" followed by the given name.
+	 * 
+	 * @param name Name of this engine
+	 * @return Object name under which the metrics were registered
+	 * @throws JMException If the metrics cannot be registered
+	 */
+	public ObjectName registerMBean(String name)
+	throws JMException
+	{
+		ObjectName objectName = new ObjectName("search:type=LittleSearchEngine,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+		return objectName;
+	}
+
 	/**
-	 * Merges the keywords for a single document into the master keywordsIndex
-	 * hash table. For each keyword, its Occurrence in the current document
-	 * must be inserted in the correct place (according to descending order of
-	 * frequency) in the same keyword's Occurrence list in the master hash table. 
-	 * This is done by calling the insertLastOccurrence method.
+	 * Adds a listener to be told about every document scanned and every search completed.
 	 * 
-	 * @param kws Keywords hash table for a document
+	 * @param listener Listener
 	 */
-	public void mergeKeyWords(HashMap<String,Occurrence> kws)
+	public void addSearchListener(SearchListener listener)
 	{
-		for (String key : kws.keySet())
-		{
-			ArrayList<Occurrence> oc = new ArrayList<Occurrence>();
+		listeners.add(listener);
+	}
 
-			if (keywordsIndex.containsKey(key))
-				oc = keywordsIndex.get(key);
-			
-			oc.add(kws.get(key));
-			insertLastOccurrence(oc);
-			keywordsIndex.put(key, oc);
-		}
+	/**
+	 * Removes a listener added with addSearchListener.
+	 * 
+	 * @param listener Listener
+	 */
+	public void removeSearchListener(SearchListener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Builds a compact copy of the keywords index, in which document names are interned
+	 * to ids and every Occurrence list is replaced by parallel arrays of document ids and
+	 * frequencies. The copy is not updated when the index changes.
+	 * 
+	 * @return Compact form of the keywords index
+	 */
+	public CompactIndex compactIndex()
+	{
+		return new CompactIndex(keywordsIndex);
 	}
 	
 	/**
@@ -172,55 +884,42 @@ public class LittleSearchEngine {
 	 */
 	public String getKeyWord(String word)
 	{
-		if ((word == null) || (word.equals(null)))
-			return null;
-		
-		word = word.toLowerCase();
-
-		if (containsACharacter(word))
-			return null;
-
-		word = removeTrailingPunc(word);
-
-		if (noiseWords.containsKey(word))
-			return null;
-		
-		if (word.length() <= 0)
+		if (word == null)
 			return null;
-		
-		return word;
-	}
 
-	private boolean containsACharacter(String word)
-	{
-		int count = 0;
-		boolean first = false;
-		while (count < word.length())
+		// the keyword is the letters before the first character that is not a letter, and
+		// no letter may come after that; characters are lowercased one at a time, as the
+		// tokenizer does, so a word that is already a keyword is returned as it is
+		int n = word.length();
+		int length = 0;
+		boolean lower = true;
+		while (length < n)
 		{
-			char c = word.charAt(count);
-			
-			if (!(Character.isLetter(c)))
-				first = true;
-
-			if ((first) && (Character.isLetter(c)))
-				return true;
-
-			count++;
+			char c = word.charAt(length);
+			char ch = Character.toLowerCase(c);
+			if (!Character.isLetter(ch))
+				break;
+			lower &= (ch == c);
+			length++;
 		}
-		return false;
-	}
+		for (int i = length; i < n; i++)
+		{
+			if (Character.isLetter(Character.toLowerCase(word.charAt(i))))
+				return null;
+		}
+		if (length == 0)
+			return null;
 
-	private String removeTrailingPunc(String word)
-	{
-		int count = 0;
-		while (count < word.length())
+		if (!lower)
 		{
-			char c = word.charAt(count);
-			if (!(Character.isLetter(c)))
-				break;
-			count++;
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++)
+				chars[i] = Character.toLowerCase(word.charAt(i));
+			return noiseFilter.contains(chars, 0, length) ? null : new String(chars);
 		}
-		return word.substring(0, count);
+
+		String keyword = (length == n) ? word : word.substring(0, length);
+		return noiseFilter.contains(keyword) ? null : keyword;
 	}
 	
 	/**
@@ -293,55 +992,581 @@ public class LittleSearchEngine {
 	public ArrayList<String> top5search(String kw1, String kw2)
 	{
 		ArrayList<String> results = new ArrayList<String>();
-		ArrayList<Occurrence> ocArr1 = new ArrayList<Occurrence>();
-		ArrayList<Occurrence> ocArr2 = new ArrayList<Occurrence>();
-		ArrayList<Occurrence> combined = new ArrayList<Occurrence>();
-		
-		if (keywordsIndex.containsKey(kw1))
-			ocArr1 = keywordsIndex.get(kw1);
-		
-		if (keywordsIndex.containsKey(kw2))
-			ocArr2 = keywordsIndex.get(kw2);
-		
-		combined.addAll(ocArr1);
-		combined.addAll(ocArr2);
+		ArrayList<Occurrence> combined = topKOccurrences(Arrays.asList(kw1, kw2), 5);
 		
-		if (!(ocArr1.isEmpty()) && !(ocArr2.isEmpty()))
+		for (Occurrence oc : combined)
+			results.add(oc.document);
+
+		return results;
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwn", limited to k documents. A document is in the
+	 * result set if any of the keywords occurs in it, and appears only once, with the highest
+	 * frequency of any of the keywords in it. The result set is arranged in descending order of
+	 * occurrence frequencies, and ties are broken in favor of the keyword that comes first in the
+	 * list, as in top5search. Keywords are treated in a case-insensitive manner, and
+	 * trailing punctuation is ignored, as when documents are scanned.
+	 * 
+	 * The Occurrence lists of the keywords are merged with a heap holding the next occurrence of
+	 * each list, so only as many occurrences are looked at as it takes to find k distinct documents.
+	 * 
+	 * @param keywords Keywords, in order of preference for breaking ties
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of documents in which any of the keywords occurs, arranged in descending
+	 *         order of frequencies. If there are no matching documents, the list is empty.
+	 */
+	public ArrayList<String> topKSearch(List<String> keywords, int k)
+	{
+		ArrayList<String> results = new ArrayList<String>();
+		for (Occurrence oc : topKOccurrences(keywords, k))
+			results.add(oc.document);
+		return results;
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwn" as in topKSearch, where every keyword may be
+	 * a pattern in which '*' stands for any sequence of letters and '?' for any single letter,
+	 * for example "won*". Each pattern is replaced by all keywords in the index that match it,
+	 * in alphabetical order, and their Occurrence lists are merged as in topKSearch. Ties are
+	 * broken in favor of the pattern that comes first in the list, then in alphabetical order
+	 * of the keywords it matched.
+	 * 
+	 * Patterns are expanded with a sorted dictionary of the keywords, and with the sorted
+	 * keyword table of the loaded segment, in which only the keywords that start with the
+	 * letters before the first wildcard are looked at.
+	 * 
+	 * @param patterns Keyword patterns, in order of preference for breaking ties
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of documents in which any keyword matching any of the patterns
+	 *         occurs, arranged in descending order of frequencies. If there are no matching
+	 *         documents, the list is empty.
+	 */
+	public ArrayList<String> wildcardSearch(List<String> patterns, int k)
+	{
+		return topKSearch(expandKeywords(patterns), k);
+	}
+
+	/**
+	 * Returns the keywords in the index that match any of a list of patterns, as expanded by
+	 * wildcardSearch. A keyword matched by more than one pattern is only listed for the first.
+	 * 
+	 * @param patterns Keyword patterns, case is ignored
+	 * @return Matching keywords, in order of the patterns and then in alphabetical order
+	 */
+	public ArrayList<String> expandKeywords(List<String> patterns)
+	{
+		TermDictionary dictionary = terms;
+		IndexSegment seg = segment;
+		ArrayList<String> keywords = new ArrayList<String>();
+		HashSet<String> listed = new HashSet<String>();
+		ArrayList<String> matches = new ArrayList<String>();
+		for (String pattern : patterns)
 		{
-			// Sort with preference for ocArr1
-			for (int x = 0; x < combined.size()-1; x++)
+			if (pattern == null)
+				continue;
+			matches.clear();
+			dictionary.expand(pattern.toLowerCase(), matches);
+			if (seg != null)
 			{
-				for (int y = 1; y < combined.size()-x; y++)
-				{
-					if (combined.get(y-1).frequency < combined.get(y).frequency)
-					{
-						Occurrence temp = combined.get(y-1);
-						combined.set(y-1, combined.get(y));
-						combined.set(y,  temp);
-					}
-				}
+				// keywords in both are listed once, below
+				seg.expand(pattern.toLowerCase(), matches);
+				Collections.sort(matches);
+			}
+			for (String keyword : matches)
+			{
+				if (listed.add(keyword))
+					keywords.add(keyword);
 			}
+		}
+		return keywords;
+	}
+
+	/**
+	 * Search result for a boolean query over any number of keywords, combined with AND, OR
+	 * and NOT (in upper case), and grouped with parentheses, for example
+	 * "alice AND (rabbit OR hole) AND NOT queen". Keywords written next to each other are
+	 * ANDed, and a NOT must be ANDed with at least one other keyword. Every word is turned
+	 * into a keyword with getKeyWord, as in topKSearch, and words that are not keywords are
+	 * left out of the query. Matching documents are ranked by the sum of the frequencies of
+	 * the query keywords that occur in them.
+	 * 
+	 * Conjunctions are evaluated starting from the keyword that occurs in the fewest
+	 * documents, so intersecting a rare keyword with a common one only costs time in
+	 * proportion to the rare one.
+	 * 
+	 * @param query Boolean query
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of matching documents, in descending order of combined frequency
+	 *         (ties in alphabetical order of names). If there are no matching documents, the
+	 *         list is empty.
+	 * @throws IllegalArgumentException If the query is not well formed
+	 */
+	public ArrayList<String> booleanSearch(String query, int k)
+	{
+		long start = System.nanoTime();
+		BooleanQuery q = BooleanQuery.parse(query).normalize(this);
+
+		Map<String,ArrayList<Occurrence>> index = keywordsIndex;
+		QueryEngine engine = queryEngine;
+		if (engine == null)
+		{
+			engine = new QueryEngine();
+			queryEngine = engine;
+		}
+		ArrayList<String> results = (q == null) ? new ArrayList<String>() : engine.search(index, segment, q, k);
+		searched(Collections.singletonList(query), results, start);
+		return results;
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwn" as in topKSearch, but ranked by the BM25
+	 * score of each document for all the keywords, instead of the highest raw frequency of any
+	 * of them. BM25 weighs frequencies against the length of the document, so that long
+	 * documents do not win just by being long, and rare keywords count for more than common
+	 * ones. Keywords are treated in a case-insensitive manner, and trailing punctuation is
+	 * ignored, as in topKSearch.
+	 * 
+	 * Document lengths are counted when documents are indexed, and the postings of every
+	 * keyword are put in descending order of score at the end of makeIndex, so a search
+	 * only reads them. Postings are read in that order, and the search stops as soon as no
+	 * document not yet seen can make it into the top k, so it usually reads only the head of
+	 * each list. The number of documents and their average length are taken when makeIndex
+	 * is done (or, after loadIndex, at the first search), and are taken again once an eighth
+	 * of the documents have been added or removed since.
+	 * 
+	 * @param keywords Keywords
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of documents in which any of the keywords occurs, in descending
+	 *         order of BM25 score (ties in alphabetical order of names). If there are no
+	 *         matching documents, the list is empty.
+	 */
+	public ArrayList<String> bm25Search(List<String> keywords, int k)
+	{
+		long start = System.nanoTime();
+		Map<String,ArrayList<Occurrence>> index = keywordsIndex;
+		Bm25Scorer scorer = bm25Scorer;
+		if (scorer == null)
+			scorer = buildScorer();
+		ArrayList<String> results = scorer.search(index, segment, keyWords(keywords), k);
+		searched(keywords, results, start);
+		return results;
+	}
+
+	/**
+	 * Builds a scorer over the current index, unless there is one. This is synchronized with
+	 * publishDocuments, so the documents of a batch are either all in the scorer or not in
+	 * the index yet.
+	 */
+	private synchronized Bm25Scorer buildScorer()
+	{
+		Bm25Scorer scorer = bm25Scorer;
+		return (scorer != null) ? scorer : buildScorer(keywordsIndex);
+	}
+
+	/**
+	 * Builds a scorer over an index, with the statistics of all documents recorded so far.
+	 */
+	private Bm25Scorer buildScorer(Map<String,ArrayList<Occurrence>> index)
+	{
+		HashMap<String,Integer> lengths = documentLengths;
+		if (segment != null)
+		{
+			if (segmentLengths == null)
+				countSegmentLengths();
+			lengths = new HashMap<String,Integer>(segmentLengths);
+			lengths.putAll(documentLengths);
+		}
 
-			// Remove duplicates
-			for (int x = 0; x < combined.size()-1; x++)
+		Bm25Scorer scorer = new Bm25Scorer(lengths);
+		scorer.build(index, segment);
+		bm25Scorer = scorer;
+		return scorer;
+	}
+
+	/**
+	 * Counts the lengths of the documents in the loaded segment, in one pass over all of
+	 * its postings.
+	 */
+	private void countSegmentLengths()
+	{
+		segmentLengths = new HashMap<String,Integer>();
+		for (String key : segment.keywords())
+		{
+			Postings p = segment.get(key);
+			for (int i = 0; i < p.size(); i++)
 			{
-				for (int y = x + 1; y < combined.size(); y++)
-				{
-					if (combined.get(x).document == combined.get(y).document)
-						combined.remove(y);
-				}
+				Integer length = segmentLengths.get(p.document(i));
+				segmentLengths.put(p.document(i), ((length == null) ? 0 : length) + p.frequency(i));
 			}
 		}
+	}
 
-		// Top 5
-		while (combined.size() > 5)
-			combined.remove(combined.size()-1);
-		
-		System.out.println(combined);
-		
-		for (Occurrence oc : combined)
-			results.add(oc.document);
+	/**
+	 * Search result for a phrase, such as "deep world": documents in which the keywords of
+	 * the phrase occur next to each other, in the same order. Words of the phrase that are
+	 * not keywords (noise words, for example) match any word in the document, so "down the
+	 * hole" matches "down a hole" as well. Documents are ranked by the number of times the
+	 * phrase occurs in them. Only documents scanned with positions enabled are searched.
+	 * 
+	 * @param phrase Words of the phrase, separated by white space
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of documents in which the phrase occurs, in descending order of
+	 *         number of occurrences (ties in alphabetical order of names). If there are no
+	 *         matching documents, or the phrase has no keywords, the list is empty.
+	 * @see #enablePositions()
+	 */
+	public ArrayList<String> phraseSearch(String phrase, int k)
+	{
+		long start = System.nanoTime();
+		Map<String,ArrayList<Occurrence>> index = keywordsIndex;
+		ArrayList<String> keywords = new ArrayList<String>();
+		ArrayList<Integer> offsets = new ArrayList<Integer>();
+		String[] words = phrase.trim().split("\\s+");
+		int first = -1;
+		for (int i = 0; i < words.length; i++)
+		{
+			String key = getKeyWord(words[i]);
+			if (key == null)
+				continue;
+			if (first < 0)
+				first = i;
+			keywords.add(key);
+			offsets.add(i - first);
+		}
+
+		ArrayList<String> results = new ArrayList<String>();
+		if (!keywords.isEmpty())
+		{
+			ArrayList<Postings> postings = new ArrayList<Postings>();
+			for (String key : keywords)
+				postings.add(postings(index, key));
+			int[] shifts = new int[offsets.size()];
+			for (int i = 0; i < shifts.length; i++)
+				shifts[i] = offsets.get(i);
+			results = PositionalQuery.phrase(postings, shifts, k);
+		}
+		searched(Collections.singletonList(phrase), results, start);
+		return results;
+	}
+
+	/**
+	 * Search result for keywords that occur close to each other: documents in which all the
+	 * keywords occur, in any order, within a window of the given number of words. Documents
+	 * are ranked by the number of such windows in them. Only documents scanned with positions
+	 * enabled are searched. Keywords are looked up as getKeyWord returns them, and words that
+	 * are not keywords are skipped.
+	 * 
+	 * @param keywords Keywords, duplicates are ignored
+	 * @param window Window size in words, at least the number of distinct keywords
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of matching documents, in descending order of number of matches
+	 *         (ties in alphabetical order of names). If there are no matching documents, the
+	 *         list is empty.
+	 * @see #enablePositions()
+	 */
+	public ArrayList<String> nearSearch(List<String> keywords, int window, int k)
+	{
+		long start = System.nanoTime();
+		Map<String,ArrayList<Occurrence>> index = keywordsIndex;
+		ArrayList<Postings> postings = new ArrayList<Postings>();
+		for (String key : new LinkedHashSet<String>(keyWords(keywords)))
+			postings.add(postings(index, key));
+
+		ArrayList<String> results = new ArrayList<String>();
+		if (!postings.isEmpty())
+			results = PositionalQuery.near(postings, window, k);
+		searched(keywords, results, start);
+		return results;
+	}
+
+	/**
+	 * Runs a batch of searches in parallel, and returns their results in the order of the
+	 * queries. All the searches run against the index as it was when this method was called,
+	 * even if documents are published while they run, and a query that is repeated in the
+	 * batch is only searched once. The batch is split between the workers of a work-stealing
+	 * pool (the common fork-join pool, unless changed with setSearchPool), so a few slow
+	 * queries do not hold up the rest. If the pool has a single worker, the batch is run on
+	 * the calling thread instead. The query cache is not used.
+	 * 
+	 * @param queries Queries
+	 * @return Result of each query, as returned by topKSearch
+	 */
+	public List<ArrayList<String>> searchBatch(List<Query> queries)
+	{
+		return searchBatch(keywordsIndex, queries);
+	}
+
+	private List<ArrayList<String>> searchBatch(Map<String,ArrayList<Occurrence>> index, List<Query> queries)
+	{
+		HashMap<Query,Integer> slots = new HashMap<Query,Integer>();
+		ArrayList<Query> distinct = new ArrayList<Query>();
+		int[] slot = new int[queries.size()];
+		for (int i = 0; i < slot.length; i++)
+		{
+			Integer s = slots.get(queries.get(i));
+			if (s == null)
+			{
+				s = distinct.size();
+				slots.put(queries.get(i), s);
+				distinct.add(queries.get(i));
+			}
+			slot[i] = s;
+		}
+
+		ArrayList<ArrayList<String>> results = new ArrayList<ArrayList<String>>(
+			Collections.nCopies(distinct.size(), (ArrayList<String>) null));
+		BatchSearch task = new BatchSearch(index, distinct, results, 0, results.size());
+		if (searchPool.getParallelism() < 2)
+		{
+			// handing the batch to a single worker would only add a thread switch
+			task.searchRange();
+		}
+		else
+			searchPool.invoke(task);
+
+		// repeated queries get copies, so callers can change their results independently
+		ArrayList<ArrayList<String>> ordered = new ArrayList<ArrayList<String>>(slot.length);
+		boolean[] used = new boolean[results.size()];
+		for (int i = 0; i < slot.length; i++)
+		{
+			ArrayList<String> result = results.get(slot[i]);
+			ordered.add(used[slot[i]] ? new ArrayList<String>(result) : result);
+			used[slot[i]] = true;
+		}
+		return ordered;
+	}
+
+	/**
+	 * Starts a search on the search pool, and returns right away. The search runs against
+	 * the index as it was when this method was called.
+	 * 
+	 * @param query Query
+	 * @return Future result of the query, as returned by topKSearch
+	 */
+	public CompletableFuture<ArrayList<String>> searchAsync(final Query query)
+	{
+		final Map<String,ArrayList<Occurrence>> index = keywordsIndex;
+		return CompletableFuture.supplyAsync(new Supplier<ArrayList<String>>() {
+			public ArrayList<String> get() {
+				return search(index, query);
+			}
+		}, searchPool);
+	}
 
+	/**
+	 * Starts a batch of searches on the search pool, and returns right away. The batch is
+	 * run as by searchBatch, against the index as it was when this method was called. It is
+	 * handed to the pool as a single task, which splits itself between the workers, rather
+	 * than as one task per query.
+	 * 
+	 * @param queries Queries
+	 * @return Future results of the queries, in the order of the queries
+	 */
+	public CompletableFuture<List<ArrayList<String>>> searchAllAsync(final List<Query> queries)
+	{
+		final Map<String,ArrayList<Occurrence>> index = keywordsIndex;
+		return CompletableFuture.supplyAsync(new Supplier<List<ArrayList<String>>>() {
+			public List<ArrayList<String>> get() {
+				return searchBatch(index, queries);
+			}
+		}, searchPool);
+	}
+
+	/**
+	 * Sets the pool on which searchBatch and searchAsync run searches.
+	 * 
+	 * @param pool Fork-join pool
+	 */
+	public void setSearchPool(ForkJoinPool pool)
+	{
+		searchPool = pool;
+	}
+
+	/**
+	 * Runs one query against a snapshot of the index, without going through the query cache.
+	 */
+	private ArrayList<String> search(Map<String,ArrayList<Occurrence>> index, Query query)
+	{
+		long start = System.nanoTime();
+		ArrayList<String> results = new ArrayList<String>();
+		for (Occurrence oc : topKHits(index, query.keywords, query.k, null))
+			results.add(oc.document);
+		searched(query.keywords, results, start);
 		return results;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Searches a range of a batch of queries, splitting it in halves until it is small
+	 * enough to run on one worker.
+	 */
+	private class BatchSearch extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		static final int SEQUENTIAL = 16;
+
+		Map<String,ArrayList<Occurrence>> index;
+		List<Query> queries;
+		ArrayList<ArrayList<String>> results;
+		int from, to;
+
+		BatchSearch(Map<String,ArrayList<Occurrence>> index, List<Query> queries, ArrayList<ArrayList<String>> results, int from, int to) {
+			this.index = index;
+			this.queries = queries;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		protected void compute() {
+			if (to - from <= SEQUENTIAL)
+			{
+				searchRange();
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new BatchSearch(index, queries, results, from, mid),
+				new BatchSearch(index, queries, results, mid, to));
+		}
+
+		void searchRange() {
+			for (int i = from; i < to; i++)
+				results.set(i, search(index, queries.get(i)));
+		}
+	}
+
+	private ArrayList<Occurrence> topKOccurrences(List<String> keywords, int k)
+	{
+		long start = System.nanoTime();
+		ArrayList<Occurrence> top = mergeOccurrences(keywords, k);
+		if (listeners.isEmpty())
+			metrics.searched(System.nanoTime() - start);
+		else
+		{
+			ArrayList<String> results = new ArrayList<String>();
+			for (Occurrence oc : top)
+				results.add(oc.document);
+			searched(keywords, results, start);
+		}
+		return top;
+	}
+
+	/**
+	 * Returns the keyword of every word of a query, as getKeyWord returns it. Words that are
+	 * not keywords are left out.
+	 */
+	private ArrayList<String> keyWords(List<String> words)
+	{
+		ArrayList<String> keywords = new ArrayList<String>(words.size());
+		for (String word : words)
+		{
+			String key = getKeyWord(word);
+			if (key != null)
+				keywords.add(key);
+		}
+		return keywords;
+	}
+
+	private void searched(List<String> query, List<String> results, long start)
+	{
+		long nanos = System.nanoTime() - start;
+		metrics.searched(nanos);
+		for (SearchListener l : listeners)
+			l.searchCompleted(query, results, nanos);
+	}
+
+	private ArrayList<Occurrence> mergeOccurrences(List<String> keywords, int k)
+	{
+		ArrayList<Occurrence> top = new ArrayList<Occurrence>();
+		if (k <= 0)
+			return top;
+
+		QueryCache cache = queryCache;
+		if (cache == null)
+			return topKHits(keywords, k, null);
+
+		// queries that only differ in case or punctuation share an entry
+		ArrayList<String> keys = new ArrayList<String>(keywords.size());
+		for (String keyword : keywords)
+			keys.add(getKeyWord(keyword));
+		String cacheKey = QueryCache.key(keys, k);
+		long generation = cache.generation();
+		ArrayList<Occurrence> cached = cache.get(cacheKey);
+		if (cached != null)
+			return cached;
+
+		top = topKHits(keys, k, null);
+		cache.put(cacheKey, keys, top, generation);
+		return top;
+	}
+
+	/**
+	 * Merges the Occurrence lists of the keywords into the top k occurrences, without going
+	 * through the query cache. Every keyword is looked up as getKeyWord returns it, and
+	 * words that are not keywords are skipped. If matched is not null, the position in
+	 * keywords of the keyword of every returned occurrence is added to it.
+	 */
+	ArrayList<Occurrence> topKHits(List<String> keywords, int k, ArrayList<Integer> matched)
+	{
+		// read the index once, so the whole search runs against one snapshot
+		return topKHits(keywordsIndex, keywords, k, matched);
+	}
+
+	private ArrayList<Occurrence> topKHits(Map<String,ArrayList<Occurrence>> index, List<String> keywords, int k, ArrayList<Integer> matched)
+	{
+		ArrayList<Occurrence> top = new ArrayList<Occurrence>();
+
+		PriorityQueue<Cursor> heap = new PriorityQueue<Cursor>(Math.max(1, keywords.size()));
+		for (int i = 0; i < keywords.size(); i++)
+		{
+			String key = getKeyWord(keywords.get(i));
+			if (key == null)
+				continue;
+			Postings p = postings(index, key);
+			if ((p != null) && (p.size() > 0))
+				heap.add(new Cursor(p, i));
+		}
+
+		HashSet<String> seen = new HashSet<String>();
+		while ((top.size() < k) && !heap.isEmpty())
+		{
+			Cursor c = heap.poll();
+			String doc = c.postings.document(c.pos);
+			if (seen.add(doc))
+			{
+				top.add(c.postings.get(c.pos));
+				if (matched != null)
+					matched.add(c.keyword);
+			}
+
+			c.pos++;
+			if (c.pos < c.postings.size())
+				heap.add(c);
+		}
+		return top;
+	}
+
+	/**
+	 * Position in the postings of one keyword during a top-k merge. Cursors are ordered by
+	 * descending frequency of their current occurrence, then by the position of their keyword
+	 * in the query.
+	 */
+	private static class Cursor implements Comparable<Cursor> {
+		Postings postings;
+		int keyword;
+		int pos;
+
+		Cursor(Postings postings, int keyword) {
+			this.postings = postings;
+			this.keyword = keyword;
+		}
+
+		public int compareTo(Cursor other) {
+			int f = postings.frequency(pos);
+			int g = other.postings.frequency(other.pos);
+			if (f != g)
+				return (f > g) ? -1 : 1;
+			return keyword - other.keyword;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Fixed set of noise words, compiled into a minimal perfect hash table so that a word can be
+ * checked with one probe, and checked directly against a range of characters without being
+ * turned into a String first. The set is built once from the noise words hash table, and is
+ * not updated if that table changes.
+ * 
+ * The table is built by hash and displace: words are first hashed into buckets of a few
+ * words each, and then, largest bucket first, a seed is searched for that sends every word
+ * of the bucket to a free slot of the table with a second, seeded hash. A bucket of one word
+ * just takes the next free slot, which is stored (negated) in place of the seed. A lookup
+ * hashes the word to its bucket, hashes it again with the bucket's seed to its slot, and
+ * compares it with the word in that slot.
+ * 
+ */
+class NoiseWords {
+
+	/**
+	 * Average number of words per bucket.
+	 */
+	private static final int BUCKET_LOAD = 4;
+
+	/**
+	 * Words, each in the slot its hash sends it to. There are exactly as many slots as words.
+	 */
+	private char[][] table;
+
+	/**
+	 * Seed of every bucket, or -(slot+1) for a bucket of a single word.
+	 */
+	private int[] seeds;
+
+	/**
+	 * Builds the set from a collection of noise words.
+	 * 
+	 * @param words Noise words
+	 */
+	public NoiseWords(Collection<String> words) {
+		ArrayList<char[]> distinct = new ArrayList<char[]>();
+		for (String word : new HashSet<String>(words))
+			distinct.add(word.toCharArray());
+
+		int n = distinct.size();
+		table = new char[n][];
+		seeds = new int[Math.max(1, (n + BUCKET_LOAD - 1) / BUCKET_LOAD)];
+
+		// hash words into buckets
+		ArrayList<ArrayList<char[]>> buckets = new ArrayList<ArrayList<char[]>>();
+		for (int b = 0; b < seeds.length; b++)
+			buckets.add(new ArrayList<char[]>());
+		for (char[] word : distinct)
+			buckets.get(index(hash(0, word, 0, word.length), seeds.length)).add(word);
+
+		Integer[] order = new Integer[seeds.length];
+		for (int b = 0; b < order.length; b++)
+			order[b] = b;
+		final ArrayList<ArrayList<char[]>> bs = buckets;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return bs.get(b).size() - bs.get(a).size();
+			}
+		});
+
+		boolean[] taken = new boolean[n];
+		int[] slots = new int[BUCKET_LOAD * 8];
+		int free = 0;
+		for (int b : order)
+		{
+			ArrayList<char[]> bucket = buckets.get(b);
+			if (bucket.isEmpty())
+				continue;
+
+			if (bucket.size() == 1)
+			{
+				while (taken[free])
+					free++;
+				taken[free] = true;
+				table[free] = bucket.get(0);
+				seeds[b] = -(free + 1);
+				continue;
+			}
+
+			if (slots.length < bucket.size())
+				slots = new int[bucket.size()];
+			for (int seed = 1; ; seed++)
+			{
+				int placed = 0;
+				for (char[] word : bucket)
+				{
+					int slot = index(hash(seed, word, 0, word.length), n);
+					boolean clash = taken[slot];
+					for (int i = 0; (i < placed) && !clash; i++)
+						clash = (slots[i] == slot);
+					if (clash)
+						break;
+					slots[placed++] = slot;
+				}
+
+				if (placed == bucket.size())
+				{
+					for (int i = 0; i < placed; i++)
+					{
+						taken[slots[i]] = true;
+						table[slots[i]] = bucket.get(i);
+					}
+					seeds[b] = seed;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Tells whether a range of characters is a noise word.
+	 * 
+	 * @param chars Characters
+	 * @param offset Start of the range
+	 * @param length Length of the range
+	 * @return True if the range is a noise word, false if not
+	 */
+	public boolean contains(char[] chars, int offset, int length)
+	{
+		if (table.length == 0)
+			return false;
+
+		int seed = seeds[index(hash(0, chars, offset, length), seeds.length)];
+		int slot = (seed < 0) ? -seed - 1 : index(hash(seed, chars, offset, length), table.length);
+
+		char[] word = table[slot];
+		if (word.length != length)
+			return false;
+		for (int i = 0; i < length; i++)
+		{
+			if (word[i] != chars[offset + i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Tells whether a word is a noise word.
+	 * 
+	 * @param word Word
+	 * @return True if the word is a noise word, false if not
+	 */
+	public boolean contains(String word)
+	{
+		if (table.length == 0)
+			return false;
+
+		int length = word.length();
+		int seed = seeds[index(hash(0, word, length), seeds.length)];
+		int slot = (seed < 0) ? -seed - 1 : index(hash(seed, word, length), table.length);
+
+		char[] w = table[slot];
+		if (w.length != length)
+			return false;
+		for (int i = 0; i < length; i++)
+		{
+			if (w[i] != word.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of noise words in the set.
+	 * 
+	 * @return Number of noise words
+	 */
+	public int size()
+	{
+		return table.length;
+	}
+
+	private static int hash(int seed, char[] chars, int offset, int length)
+	{
+		int h = 0x811c9dc5 ^ (seed * 0x9e3779b9);
+		for (int i = offset; i < offset + length; i++)
+			h = (h ^ chars[i]) * 0x01000193;
+		return mix(h);
+	}
+
+	private static int hash(int seed, String word, int length)
+	{
+		int h = 0x811c9dc5 ^ (seed * 0x9e3779b9);
+		for (int i = 0; i < length; i++)
+			h = (h ^ word.charAt(i)) * 0x01000193;
+		return mix(h);
+	}
+
+	private static int mix(int h)
+	{
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h;
+	}
+
+	private static int index(int hash, int n)
+	{
+		return (int) ((hash & 0xffffffffL) % n);
+	}
+}
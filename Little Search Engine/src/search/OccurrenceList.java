@@ -0,0 +1,44 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Postings view of an array list of Occurrence objects, as stored in the keywords index.
+ * 
+ */
+class OccurrenceList implements Postings {
+
+	/**
+	 * Occurrences, in descending order of frequency.
+	 */
+	private ArrayList<Occurrence> occs;
+
+	/**
+	 * Wraps an occurrence list. The list is not copied.
+	 * 
+	 * @param occs Occurrences, in descending order of frequency
+	 */
+	public OccurrenceList(ArrayList<Occurrence> occs) {
+		this.occs = occs;
+	}
+
+	public int size()
+	{
+		return occs.size();
+	}
+
+	public String document(int i)
+	{
+		return occs.get(i).document;
+	}
+
+	public int frequency(int i)
+	{
+		return occs.get(i).frequency;
+	}
+
+	public Occurrence get(int i)
+	{
+		return occs.get(i);
+	}
+}
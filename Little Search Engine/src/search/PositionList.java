@@ -0,0 +1,130 @@
+package search;
+
+/**
+ * Positions of a keyword in one document, stored as the gaps between successive positions
+ * (the first one as is) in variable-byte integers. A position is the number of words, of
+ * any kind, before the keyword in the document, so gaps are small for any keyword that
+ * occurs more than a few times, and most take a single byte.
+ *
+ * A PositionList is a cursor that decodes the positions in increasing order; the encoded
+ * bytes are immutable and can be shared by any number of cursors.
+ *
+ */
+class PositionList {
+
+	/**
+	 * Growable array of positions, in increasing order, used while a document is scanned.
+	 */
+	static class Builder {
+		int[] positions = new int[4];
+		int size;
+
+		void add(int position) {
+			if (size == positions.length)
+			{
+				int[] grown = new int[2 * size];
+				System.arraycopy(positions, 0, grown, 0, size);
+				positions = grown;
+			}
+			positions[size++] = position;
+		}
+
+		byte[] encode() {
+			return PositionList.encode(positions, size);
+		}
+	}
+
+	/**
+	 * Encoded positions.
+	 */
+	private byte[] data;
+
+	/**
+	 * Offset of the next byte to decode in data.
+	 */
+	private int offset;
+
+	/**
+	 * Current position, -1 before the first call to next.
+	 */
+	int position;
+
+	/**
+	 * Initializes a cursor before the first of some encoded positions.
+	 *
+	 * @param data Positions encoded with encode
+	 */
+	public PositionList(byte[] data) {
+		this.data = data;
+		position = -1;
+	}
+
+	/**
+	 * Encodes positions.
+	 *
+	 * @param positions Positions, in increasing order
+	 * @param n Number of positions
+	 * @return Encoded positions
+	 */
+	public static byte[] encode(int[] positions, int n)
+	{
+		byte[] out = new byte[5 * n];
+		int len = 0;
+		int previous = 0;
+		for (int i = 0; i < n; i++)
+		{
+			int gap = positions[i] - previous;
+			previous = positions[i];
+			while ((gap & ~0x7f) != 0)
+			{
+				out[len++] = (byte) ((gap & 0x7f) | 0x80);
+				gap >>>= 7;
+			}
+			out[len++] = (byte) gap;
+		}
+		byte[] trimmed = new byte[len];
+		System.arraycopy(out, 0, trimmed, 0, len);
+		return trimmed;
+	}
+
+	/**
+	 * Moves to the next position.
+	 *
+	 * @return True if there was a next position, false at the end of the list
+	 */
+	public boolean next()
+	{
+		if (offset == data.length)
+			return false;
+
+		int gap = 0;
+		int shift = 0;
+		byte b;
+		do
+		{
+			b = data[offset++];
+			gap |= (b & 0x7f) << shift;
+			shift += 7;
+		}
+		while (b < 0);
+		position = (position < 0) ? gap : position + gap;
+		return true;
+	}
+
+	/**
+	 * Moves to the first position at or after a target, unless the current position is
+	 * already there.
+	 *
+	 * @param target Target position
+	 * @return True if there is such a position, false at the end of the list
+	 */
+	public boolean advance(int target)
+	{
+		while (position < target)
+		{
+			if (!next())
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,214 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Phrase and proximity matching over the keyword positions recorded in Occurrence objects.
+ * Candidate documents are those in which every keyword of the query occurs: they are
+ * taken from the shortest posting list, and matched against each of the others in turn.
+ * The position lists of a candidate are then intersected in a single forward pass, in
+ * which every list only ever moves ahead to the next position that could still match, so
+ * the cost is linear in the number of positions of the keywords in the document.
+ *
+ * Documents are ranked by the number of matches in them, ties in alphabetical order of
+ * names. Occurrences without positions (from documents scanned while positions were not
+ * being recorded, or from a loaded segment) never match.
+ *
+ */
+class PositionalQuery {
+
+	/**
+	 * Returns the top k documents in which the keywords occur at the given offsets from
+	 * each other.
+	 *
+	 * @param postings Postings of the keywords of the phrase, in phrase order
+	 * @param offsets Offset of each keyword from the first one, in words
+	 * @param k Maximum number of documents in the result
+	 * @return Names of the top k documents, in descending order of number of matches
+	 */
+	public static ArrayList<String> phrase(List<Postings> postings, int[] offsets, int k)
+	{
+		HashMap<String,Integer> counts = new HashMap<String,Integer>();
+		for (Map.Entry<String,Occurrence[]> e : candidates(postings).entrySet())
+		{
+			int n = countPhrase(e.getValue(), offsets);
+			if (n > 0)
+				counts.put(e.getKey(), n);
+		}
+		return top(counts, k);
+	}
+
+	/**
+	 * Returns the top k documents in which all the keywords occur within a window of the
+	 * given number of words, in any order.
+	 *
+	 * @param postings Postings of the keywords
+	 * @param window Window size in words, 1 or more
+	 * @param k Maximum number of documents in the result
+	 * @return Names of the top k documents, in descending order of number of matches
+	 */
+	public static ArrayList<String> near(List<Postings> postings, int window, int k)
+	{
+		HashMap<String,Integer> counts = new HashMap<String,Integer>();
+		for (Map.Entry<String,Occurrence[]> e : candidates(postings).entrySet())
+		{
+			int n = countNear(e.getValue(), window);
+			if (n > 0)
+				counts.put(e.getKey(), n);
+		}
+		return top(counts, k);
+	}
+
+	/**
+	 * Returns the occurrences of all the keywords in every document in which they all occur
+	 * with positions.
+	 */
+	private static HashMap<String,Occurrence[]> candidates(List<Postings> postings)
+	{
+		HashMap<String,Occurrence[]> docs = new HashMap<String,Occurrence[]>();
+		int n = postings.size();
+		int shortest = -1;
+		for (int i = 0; i < n; i++)
+		{
+			Postings p = postings.get(i);
+			if ((p == null) || (p.size() == 0))
+				return docs;
+			if ((shortest < 0) || (p.size() < postings.get(shortest).size()))
+				shortest = i;
+		}
+		if (shortest < 0)
+			return docs;
+
+		Postings first = postings.get(shortest);
+		for (int j = 0; j < first.size(); j++)
+		{
+			Occurrence oc = first.get(j);
+			if (oc.positions == null)
+				continue;
+			Occurrence[] occs = new Occurrence[n];
+			occs[shortest] = oc;
+			docs.put(oc.document, occs);
+		}
+
+		for (int i = 0; (i < n) && !docs.isEmpty(); i++)
+		{
+			if (i == shortest)
+				continue;
+			Postings p = postings.get(i);
+			int found = 0;
+			for (int j = 0; (j < p.size()) && (found < docs.size()); j++)
+			{
+				Occurrence[] occs = docs.get(p.document(j));
+				if (occs != null)
+				{
+					occs[i] = p.get(j);
+					found++;
+				}
+			}
+
+			Iterator<Occurrence[]> it = docs.values().iterator();
+			while (it.hasNext())
+			{
+				Occurrence[] occs = it.next();
+				if ((occs[i] == null) || (occs[i].positions == null))
+					it.remove();
+			}
+		}
+		return docs;
+	}
+
+	/**
+	 * Counts the positions at which the keywords occur at the given offsets.
+	 */
+	static int countPhrase(Occurrence[] occs, int[] offsets)
+	{
+		PositionList[] lists = new PositionList[occs.length];
+		for (int i = 0; i < occs.length; i++)
+			lists[i] = new PositionList(occs[i].positions);
+
+		int count = 0;
+		int start = 0;
+		while (true)
+		{
+			boolean aligned = true;
+			for (int i = 0; i < lists.length; i++)
+			{
+				if (!lists[i].advance(start + offsets[i]))
+					return count;
+				int s = lists[i].position - offsets[i];
+				if (s > start)
+				{
+					// the phrase cannot start before s, so start over from there
+					start = s;
+					aligned = false;
+					break;
+				}
+			}
+			if (aligned)
+			{
+				count++;
+				start++;
+			}
+		}
+	}
+
+	/**
+	 * Counts the positions of any of the keywords that start a window of the given size
+	 * holding all the keywords.
+	 */
+	static int countNear(Occurrence[] occs, int window)
+	{
+		PositionList[] lists = new PositionList[occs.length];
+		for (int i = 0; i < occs.length; i++)
+		{
+			lists[i] = new PositionList(occs[i].positions);
+			lists[i].next();
+		}
+
+		int count = 0;
+		while (true)
+		{
+			int min = 0;
+			int max = lists[0].position;
+			for (int i = 1; i < lists.length; i++)
+			{
+				if (lists[i].position < lists[min].position)
+					min = i;
+				max = Math.max(max, lists[i].position);
+			}
+			if (max - lists[min].position < window)
+				count++;
+			if (!lists[min].next())
+				return count;
+		}
+	}
+
+	private static ArrayList<String> top(final HashMap<String,Integer> counts, int k)
+	{
+		ArrayList<String> results = new ArrayList<String>();
+		if (k <= 0)
+			return results;
+
+		// min-heap of the best k documents
+		PriorityQueue<String> heap = new PriorityQueue<String>(k, new Comparator<String>() {
+			public int compare(String a, String b) {
+				int ca = counts.get(a);
+				int cb = counts.get(b);
+				if (ca != cb)
+					return (ca < cb) ? -1 : 1;
+				return b.compareTo(a);
+			}
+		});
+		for (String doc : counts.keySet())
+		{
+			heap.add(doc);
+			if (heap.size() > k)
+				heap.poll();
+		}
+
+		while (!heap.isEmpty())
+			results.add(heap.poll());
+		Collections.reverse(results);
+		return results;
+	}
+}
@@ -0,0 +1,124 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Compact posting list for a single keyword. Instead of one Occurrence object per
+ * document, the list is stored as two parallel int arrays of document ids and frequencies,
+ * kept in descending order of frequency. Document ids are resolved through a shared
+ * DocumentTable.
+ * 
+ */
+class PostingList implements Postings {
+
+	/**
+	 * Table through which document ids are resolved to names.
+	 */
+	private DocumentTable docs;
+
+	/**
+	 * Document ids, in descending order of frequency.
+	 */
+	private int[] docIds;
+
+	/**
+	 * Frequencies, parallel to docIds.
+	 */
+	private int[] freqs;
+
+	/**
+	 * Builds the compact form of an occurrence list, interning its documents into the
+	 * given document table.
+	 * 
+	 * @param occs Occurrences in descending order of frequency
+	 * @param docs Document table
+	 */
+	public PostingList(ArrayList<Occurrence> occs, DocumentTable docs) {
+		this.docs = docs;
+		docIds = new int[occs.size()];
+		freqs = new int[occs.size()];
+		for (int i = 0; i < occs.size(); i++)
+		{
+			Occurrence oc = occs.get(i);
+			docIds[i] = docs.intern(oc.document);
+			freqs[i] = oc.frequency;
+		}
+	}
+
+	/**
+	 * Wraps already built parallel arrays.
+	 * 
+	 * @param docIds Document ids, in descending order of frequency
+	 * @param freqs Frequencies, parallel to docIds
+	 * @param docs Document table
+	 */
+	PostingList(int[] docIds, int[] freqs, DocumentTable docs) {
+		this.docs = docs;
+		this.docIds = docIds;
+		this.freqs = freqs;
+	}
+
+	public int size()
+	{
+		return docIds.length;
+	}
+
+	/**
+	 * Returns the document id of the i-th occurrence.
+	 * 
+	 * @param i Index of occurrence, 0..size()-1
+	 * @return Document id
+	 */
+	public int docId(int i)
+	{
+		return docIds[i];
+	}
+
+	public String document(int i)
+	{
+		return docs.name(docIds[i]);
+	}
+
+	public int frequency(int i)
+	{
+		return freqs[i];
+	}
+
+	/**
+	 * Returns the i-th occurrence as a new Occurrence object, since the list does not
+	 * hold any. Scans that only need documents and frequencies should use document(i)
+	 * and frequency(i), which do not allocate.
+	 * 
+	 * @param i Index of occurrence, 0..size()-1
+	 * @return New Occurrence for the document,frequency pair
+	 */
+	public Occurrence get(int i)
+	{
+		return new Occurrence(document(i), freqs[i]);
+	}
+
+	/**
+	 * Returns an estimate of the heap space taken by this list, in bytes.
+	 * 
+	 * @return Estimated size in bytes
+	 */
+	public long estimateBytes()
+	{
+		return CompactIndex.align(CompactIndex.OBJECT_BYTES + 3 * CompactIndex.REF_BYTES)
+			+ 2 * CompactIndex.intArrayBytes(docIds.length);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < docIds.length; i++)
+		{
+			if (i > 0)
+				sb.append(", ");
+			sb.append("(" + document(i) + "," + freqs[i] + ")");
+		}
+		return sb.append("]").toString();
+	}
+}
@@ -0,0 +1,41 @@
+package search;
+
+/**
+ * Read-only view of the occurrences of a single keyword, arranged in descending
+ * order of occurrence frequencies. This is the same information as an array list of
+ * Occurrence objects, but implementations are free to store it in a more compact form.
+ * 
+ */
+interface Postings {
+
+	/**
+	 * Returns the number of documents in which the keyword occurs.
+	 * 
+	 * @return Number of occurrences
+	 */
+	int size();
+
+	/**
+	 * Returns the name of the document of the i-th occurrence.
+	 * 
+	 * @param i Index of occurrence, 0..size()-1
+	 * @return Document name
+	 */
+	String document(int i);
+
+	/**
+	 * Returns the frequency of the i-th occurrence.
+	 * 
+	 * @param i Index of occurrence, 0..size()-1
+	 * @return Frequency of the keyword in that document
+	 */
+	int frequency(int i);
+
+	/**
+	 * Returns the i-th occurrence as an Occurrence object.
+	 * 
+	 * @param i Index of occurrence, 0..size()-1
+	 * @return Occurrence for the document,frequency pair
+	 */
+	Occurrence get(int i);
+}
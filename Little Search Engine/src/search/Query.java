@@ -0,0 +1,58 @@
+package search;
+
+import java.util.*;
+
+/**
+ * A search for "kw1 or kw2 or ... or kwn" limited to k documents, as run by topKSearch,
+ * for submitting searches in batches or asynchronously.
+ *
+ */
+public class Query {
+
+	/**
+	 * Keywords, in order of preference for breaking ties. This is a copy of the list the
+	 * query was made with, so the query cannot change while it is a key in a map.
+	 */
+	final List<String> keywords;
+
+	/**
+	 * Maximum number of documents in the result.
+	 */
+	final int k;
+
+	/**
+	 * Initializes a query for the same result as top5search(kw1, kw2).
+	 *
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 */
+	public Query(String kw1, String kw2) {
+		this(Arrays.asList(kw1, kw2), 5);
+	}
+
+	/**
+	 * Initializes a query for the same result as topKSearch(keywords, k).
+	 *
+	 * @param keywords Keywords, in order of preference for breaking ties
+	 * @param k Maximum number of documents in the result
+	 */
+	public Query(List<String> keywords, int k) {
+		this.keywords = Collections.unmodifiableList(new ArrayList<String>(keywords));
+		this.k = k;
+	}
+
+	public boolean equals(Object o) {
+		if (!(o instanceof Query))
+			return false;
+		Query other = (Query) o;
+		return (k == other.k) && keywords.equals(other.keywords);
+	}
+
+	public int hashCode() {
+		return 31 * keywords.hashCode() + k;
+	}
+
+	public String toString() {
+		return keywords + " top " + k;
+	}
+}
@@ -0,0 +1,255 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Bounded cache of search results, with least recently used eviction. A query is keyed on
+ * its list of keywords and result size. Every cached query is also filed under each of its
+ * keywords, so that when the Occurrence list of a keyword changes, only the queries that
+ * use that keyword are dropped. All methods are synchronized.
+ * 
+ */
+class QueryCache {
+
+	/**
+	 * Cached result of one query.
+	 */
+	private static class Entry {
+		List<String> keywords;
+		ArrayList<Occurrence> result;
+
+		Entry(List<String> keywords, ArrayList<Occurrence> result) {
+			this.keywords = keywords;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * Maximum number of cached queries.
+	 */
+	private int capacity;
+
+	/**
+	 * Cached queries, in access order (least recently used first).
+	 */
+	private LinkedHashMap<String,Entry> entries;
+
+	/**
+	 * Keys of the cached queries that use each keyword.
+	 */
+	private HashMap<String,HashSet<String>> byKeyword;
+
+	private long hits, misses, evictions, invalidations;
+
+	/**
+	 * Number of times cached queries have been dropped because the index changed.
+	 */
+	private long generation;
+
+	/**
+	 * Initializes an empty cache.
+	 * 
+	 * @param capacity Maximum number of cached queries
+	 */
+	public QueryCache(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("cache capacity must be positive");
+		this.capacity = capacity;
+		entries = new LinkedHashMap<String,Entry>(16, 0.75f, true);
+		byKeyword = new HashMap<String,HashSet<String>>();
+	}
+
+	/**
+	 * Returns the key of a query. Keywords are only made of letters, so they are separated
+	 * by a character that is not one, and a word that is not a keyword is left empty.
+	 * 
+	 * @param keywords Keywords, in order, as returned by getKeyWord (null for a word that
+	 *        is not a keyword)
+	 * @param k Result size
+	 * @return Cache key
+	 */
+	public static String key(List<String> keywords, int k)
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(k);
+		for (String keyword : keywords)
+		{
+			sb.append('\u0000');
+			if (keyword != null)
+				sb.append(keyword);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Looks up a query.
+	 * 
+	 * @param key Cache key of the query
+	 * @return Copy of the cached result, null if the query is not cached
+	 */
+	public synchronized ArrayList<Occurrence> get(String key)
+	{
+		Entry e = entries.get(key);
+		if (e == null)
+		{
+			misses++;
+			return null;
+		}
+		hits++;
+		return new ArrayList<Occurrence>(e.result);
+	}
+
+	/**
+	 * Returns the current generation of the cache, which changes every time cached queries
+	 * are dropped because the index changed. A search reads it before it reads the index.
+	 * 
+	 * @return Cache generation
+	 */
+	public synchronized long generation()
+	{
+		return generation;
+	}
+
+	/**
+	 * Caches the result of a query, evicting the least recently used query if the
+	 * cache is full. The result is not cached if the index has changed since the given
+	 * generation, since it may have been computed from an older index.
+	 * 
+	 * @param key Cache key of the query
+	 * @param keywords Keywords of the query, as returned by getKeyWord
+	 * @param result Result of the query, copied into the cache
+	 * @param generation Generation of the cache before the query was run
+	 */
+	public synchronized void put(String key, List<String> keywords, ArrayList<Occurrence> result, long generation)
+	{
+		if (generation != this.generation)
+			return;
+
+		if (entries.containsKey(key))
+			remove(key);
+
+		if (entries.size() >= capacity)
+		{
+			remove(entries.keySet().iterator().next());
+			evictions++;
+		}
+
+		keywords = new ArrayList<String>(keywords);
+		keywords.removeAll(Collections.singleton((String) null));
+		entries.put(key, new Entry(keywords, new ArrayList<Occurrence>(result)));
+		for (String keyword : keywords)
+		{
+			HashSet<String> keys = byKeyword.get(keyword);
+			if (keys == null)
+			{
+				keys = new HashSet<String>();
+				byKeyword.put(keyword, keys);
+			}
+			keys.add(key);
+		}
+	}
+
+	/**
+	 * Drops all cached queries that use a keyword.
+	 * 
+	 * @param keyword Keyword whose Occurrence list has changed
+	 */
+	public synchronized void invalidate(String keyword)
+	{
+		generation++;
+		HashSet<String> keys = byKeyword.get(keyword);
+		if (keys == null)
+			return;
+		for (String key : new ArrayList<String>(keys))
+		{
+			remove(key);
+			invalidations++;
+		}
+	}
+
+	/**
+	 * Drops all cached queries.
+	 */
+	public synchronized void clear()
+	{
+		generation++;
+		invalidations += entries.size();
+		entries.clear();
+		byKeyword.clear();
+	}
+
+	/**
+	 * Returns the number of cached queries.
+	 * 
+	 * @return Number of cached queries
+	 */
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Returns the number of lookups that found a cached result.
+	 * 
+	 * @return Number of hits
+	 */
+	public synchronized long hits()
+	{
+		return hits;
+	}
+
+	/**
+	 * Returns the number of lookups that did not find a cached result.
+	 * 
+	 * @return Number of misses
+	 */
+	public synchronized long misses()
+	{
+		return misses;
+	}
+
+	/**
+	 * Returns the number of queries dropped to make room for new ones.
+	 * 
+	 * @return Number of evictions
+	 */
+	public synchronized long evictions()
+	{
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of queries dropped because the index changed.
+	 * 
+	 * @return Number of invalidations
+	 */
+	public synchronized long invalidations()
+	{
+		return invalidations;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	public synchronized String toString() {
+		return "size=" + entries.size() + " hits=" + hits + " misses=" + misses
+			+ " evictions=" + evictions + " invalidations=" + invalidations;
+	}
+
+	private void remove(String key)
+	{
+		Entry e = entries.remove(key);
+		if (e == null)
+			return;
+		for (String keyword : e.keywords)
+		{
+			HashSet<String> keys = byKeyword.get(keyword);
+			if (keys != null)
+			{
+				keys.remove(key);
+				if (keys.isEmpty())
+					byKeyword.remove(keyword);
+			}
+		}
+	}
+}
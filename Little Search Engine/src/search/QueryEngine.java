@@ -0,0 +1,420 @@
+package search;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Evaluates boolean keyword queries against snapshots of the keywords index. Posting
+ * lists in the index are in descending order of frequency, so the first time a keyword is
+ * used, the engine makes a copy of its postings in document id order, which is kept for
+ * later queries. The engine lives as long as the index, and keeps the copies up to date
+ * as documents are added and removed, the way Bm25Scorer keeps its lists, so a change to
+ * the index only costs the copies of the keywords it touches, in proportion to their
+ * size, and a copy is never sorted again. Each copy is tagged with the Occurrence list
+ * (or segment) it was made from, so a search against a snapshot that is no longer current
+ * can tell which copies do not belong to it, and makes its own.
+ *
+ * Searches do not lock anything, and may run in any number of threads, alongside one
+ * thread that changes the index through publishDocuments. Conjunctions are evaluated from
+ * the rarest keyword up, each step intersecting the (small) running result with the next
+ * list by galloping search, so the cost depends on the size of the rarest list rather
+ * than of the common ones.
+ * 
+ * Every matching document is scored by the sum of the frequencies of the keywords of the
+ * query that occur in it, and the top k documents are returned in descending order of
+ * score. Ties are broken in alphabetical order of document names.
+ * 
+ */
+class QueryEngine {
+
+	/**
+	 * Documents with scores, in increasing order of document id.
+	 */
+	static class DocSet {
+		int[] docs;
+		int[] scores;
+		int size;
+
+		/**
+		 * Occurrence list or segment the postings were copied from, null for a set that is
+		 * the result of an operation.
+		 */
+		Object source;
+
+		DocSet(int capacity) {
+			docs = new int[capacity];
+			scores = new int[capacity];
+		}
+
+		void add(int doc, int score) {
+			docs[size] = doc;
+			scores[size++] = score;
+		}
+
+		/**
+		 * Returns a copy of this set, tagged with another source.
+		 */
+		DocSet copy(Object source) {
+			DocSet set = new DocSet(0);
+			set.docs = Arrays.copyOf(docs, size + 1);
+			set.scores = Arrays.copyOf(scores, size + 1);
+			set.size = size;
+			set.source = source;
+			return set;
+		}
+
+		void insert(int doc, int score) {
+			if (size == docs.length)
+			{
+				int capacity = Math.max(4, 2 * size);
+				docs = Arrays.copyOf(docs, capacity);
+				scores = Arrays.copyOf(scores, capacity);
+			}
+
+			// after any postings of the same document
+			int low = 0;
+			int high = size;
+			while (low < high)
+			{
+				int mid = (low + high) >>> 1;
+				if (docs[mid] <= doc)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			System.arraycopy(docs, low, docs, low + 1, size - low);
+			System.arraycopy(scores, low, scores, low + 1, size - low);
+			docs[low] = doc;
+			scores[low] = score;
+			size++;
+		}
+
+		void remove(int doc) {
+			int i = Arrays.binarySearch(docs, 0, size, doc);
+			if (i < 0)
+				return;
+			System.arraycopy(docs, i + 1, docs, i, size - i - 1);
+			System.arraycopy(scores, i + 1, scores, i, size - i - 1);
+			size--;
+		}
+	}
+
+	/**
+	 * Id of every document seen by this engine, by name.
+	 */
+	private ConcurrentHashMap<String,Integer> ids;
+
+	/**
+	 * Document names, indexed by document id. Replaced, not changed, when it grows, so a
+	 * search sees every id it has been given.
+	 */
+	private volatile String[] names;
+
+	/**
+	 * Number of ids given out.
+	 */
+	private int size;
+
+	/**
+	 * Postings of every keyword used so far, in document id order.
+	 */
+	private ConcurrentHashMap<String,DocSet> sorted;
+
+	/**
+	 * Initializes an engine with no postings.
+	 */
+	public QueryEngine() {
+		ids = new ConcurrentHashMap<String,Integer>();
+		names = new String[16];
+		sorted = new ConcurrentHashMap<String,DocSet>();
+	}
+
+	/**
+	 * Runs a query.
+	 * 
+	 * @param index Snapshot of the keywords index to search
+	 * @param segment Segment under the keywords index, null if none
+	 * @param query Parsed query, with keywords as getKeyWord returns them
+	 * @param k Maximum number of documents in the result
+	 * @return Names of the top k matching documents, in descending order of score
+	 */
+	public ArrayList<String> search(Map<String,ArrayList<Occurrence>> index, IndexSegment segment, BooleanQuery query, int k)
+	{
+		DocSet matches = evaluate(index, segment, query);
+
+		final DocSet m = matches;
+		final String[] names = docNames(matches);
+
+		// min-heap of the best k positions in matches
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(Math.max(1, k), new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				if (m.scores[a] != m.scores[b])
+					return (m.scores[a] < m.scores[b]) ? -1 : 1;
+				return names[b].compareTo(names[a]);
+			}
+		});
+		for (int i = 0; i < matches.size; i++)
+		{
+			heap.add(i);
+			if (heap.size() > k)
+				heap.poll();
+		}
+
+		ArrayList<String> results = new ArrayList<String>(heap.size());
+		while (!heap.isEmpty())
+			results.add(names[heap.poll()]);
+		Collections.reverse(results);
+		return results;
+	}
+
+	/**
+	 * Adds an occurrence that has been inserted in the Occurrence list of a keyword, in
+	 * place.
+	 *
+	 * @param keyword Keyword
+	 * @param occs Occurrence list of the keyword in the keywords index, with the occurrence
+	 * @param oc Occurrence
+	 */
+	void added(String keyword, ArrayList<Occurrence> occs, Occurrence oc)
+	{
+		DocSet set = sorted.get(keyword);
+		if ((set != null) && (set.source == occs))
+			set.insert(id(oc.document), oc.frequency);
+		else if (set != null)
+			sorted.remove(keyword);
+	}
+
+	/**
+	 * Removes the occurrence of a document that has been removed from the Occurrence list
+	 * of a keyword, in place.
+	 *
+	 * @param keyword Keyword
+	 * @param occs Occurrence list of the keyword, null if it was removed from the index
+	 * @param document Document name
+	 */
+	void removed(String keyword, ArrayList<Occurrence> occs, String document)
+	{
+		DocSet set = sorted.get(keyword);
+		Integer id = ids.get(document);
+		if ((set != null) && (set.source == occs) && (occs != null) && (id != null))
+			set.remove(id);
+		else if (set != null)
+			sorted.remove(keyword);
+	}
+
+	/**
+	 * Replaces the postings of a keyword whose Occurrence list has been copied, with new
+	 * occurrences inserted in the copy, leaving the current postings as they are for
+	 * searches against the old snapshot.
+	 *
+	 * @param keyword Keyword
+	 * @param oldSource Occurrence list (or segment) the keyword had in the old snapshot
+	 * @param occs New Occurrence list of the keyword
+	 * @param added New occurrences in occs
+	 */
+	void copied(String keyword, Object oldSource, ArrayList<Occurrence> occs, List<Occurrence> added)
+	{
+		DocSet set = sorted.get(keyword);
+		if (set == null)
+			return;
+		if (set.source != oldSource)
+		{
+			sorted.remove(keyword);
+			return;
+		}
+
+		set = set.copy(occs);
+		for (Occurrence oc : added)
+			set.insert(id(oc.document), oc.frequency);
+		sorted.put(keyword, set);
+	}
+
+	private DocSet evaluate(Map<String,ArrayList<Occurrence>> index, IndexSegment segment, BooleanQuery q)
+	{
+		if (q.kind == BooleanQuery.TERM)
+			return postings(index, segment, q.keyword);
+
+		if (q.kind == BooleanQuery.OR)
+		{
+			DocSet result = new DocSet(0);
+			for (BooleanQuery op : q.operands)
+				result = union(result, evaluate(index, segment, op));
+			return result;
+		}
+
+		// AND: intersect the positive operands from the smallest up, then subtract
+		ArrayList<DocSet> positive = new ArrayList<DocSet>();
+		ArrayList<DocSet> negative = new ArrayList<DocSet>();
+		for (BooleanQuery op : q.operands)
+		{
+			if (op.kind == BooleanQuery.NOT)
+				negative.add(evaluate(index, segment, op.operands.get(0)));
+			else
+				positive.add(evaluate(index, segment, op));
+		}
+		Collections.sort(positive, new Comparator<DocSet>() {
+			public int compare(DocSet a, DocSet b) {
+				return a.size - b.size;
+			}
+		});
+
+		DocSet result = positive.get(0);
+		for (int i = 1; (i < positive.size()) && (result.size > 0); i++)
+			result = intersect(result, positive.get(i));
+		for (int i = 0; (i < negative.size()) && (result.size > 0); i++)
+			result = subtract(result, negative.get(i));
+		return result;
+	}
+
+	/**
+	 * Intersects a small set with a larger one, galloping through the larger one.
+	 */
+	private static DocSet intersect(DocSet small, DocSet large)
+	{
+		DocSet result = new DocSet(small.size);
+		int j = 0;
+		for (int i = 0; (i < small.size) && (j < large.size); i++)
+		{
+			j = gallop(large, j, small.docs[i]);
+			if ((j < large.size) && (large.docs[j] == small.docs[i]))
+				result.add(small.docs[i], small.scores[i] + large.scores[j]);
+		}
+		return result;
+	}
+
+	private static DocSet subtract(DocSet a, DocSet b)
+	{
+		DocSet result = new DocSet(a.size);
+		int j = 0;
+		for (int i = 0; i < a.size; i++)
+		{
+			j = gallop(b, j, a.docs[i]);
+			if ((j == b.size) || (b.docs[j] != a.docs[i]))
+				result.add(a.docs[i], a.scores[i]);
+		}
+		return result;
+	}
+
+	private static DocSet union(DocSet a, DocSet b)
+	{
+		DocSet result = new DocSet(a.size + b.size);
+		int i = 0;
+		int j = 0;
+		while ((i < a.size) || (j < b.size))
+		{
+			if ((j == b.size) || ((i < a.size) && (a.docs[i] < b.docs[j])))
+			{
+				result.add(a.docs[i], a.scores[i]);
+				i++;
+			}
+			else if ((i == a.size) || (b.docs[j] < a.docs[i]))
+			{
+				result.add(b.docs[j], b.scores[j]);
+				j++;
+			}
+			else
+			{
+				result.add(a.docs[i], a.scores[i] + b.scores[j]);
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the first position at or after from whose document is at least doc, by
+	 * doubling the step until it overshoots and then binary searching the last step.
+	 */
+	private static int gallop(DocSet set, int from, int doc)
+	{
+		int step = 1;
+		int low = from;
+		int high = from;
+		while ((high < set.size) && (set.docs[high] < doc))
+		{
+			low = high + 1;
+			high = from + step;
+			step *= 2;
+		}
+		if (high > set.size)
+			high = set.size;
+
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (set.docs[mid] < doc)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the postings of a keyword in a snapshot, in document id order. The stored
+	 * copy is used if it was made from the snapshot's postings. Otherwise the postings are
+	 * sorted, and the copy is stored for later searches.
+	 */
+	private DocSet postings(Map<String,ArrayList<Occurrence>> index, IndexSegment segment, String keyword)
+	{
+		ArrayList<Occurrence> oc = index.get(keyword);
+		Object source = (oc != null) ? oc : segment;
+		if (source == null)
+			return new DocSet(0);
+
+		DocSet set = sorted.get(keyword);
+		if ((set != null) && (set.source == source))
+			return set;
+
+		Postings p = (oc != null) ? new OccurrenceList(oc) : segment.get(keyword);
+		int n = (p == null) ? 0 : p.size();
+		long[] packed = new long[n];
+		for (int i = 0; i < n; i++)
+			packed[i] = ((long) id(p.document(i)) << 32) | p.frequency(i);
+		Arrays.sort(packed);
+
+		set = new DocSet(n);
+		for (int i = 0; i < n; i++)
+			set.add((int) (packed[i] >>> 32), (int) packed[i]);
+		set.source = source;
+
+		// a search of an old snapshot, still running while a batch is published, may put
+		// back an old copy, which the next search of the new snapshot replaces
+		sorted.put(keyword, set);
+		return set;
+	}
+
+	/**
+	 * Returns the id of a document, giving it the next id if it has none.
+	 */
+	private int id(String document)
+	{
+		Integer id = ids.get(document);
+		if (id != null)
+			return id;
+
+		synchronized (this)
+		{
+			id = ids.get(document);
+			if (id == null)
+			{
+				if (size == names.length)
+					names = Arrays.copyOf(names, 2 * size);
+				names[size] = document;
+				id = size++;
+				ids.put(document, id);
+			}
+			return id;
+		}
+	}
+
+	private String[] docNames(DocSet set)
+	{
+		String[] all = this.names;
+		String[] names = new String[set.size];
+		for (int i = 0; i < set.size; i++)
+			names[i] = all[set.docs[i]];
+		return names;
+	}
+}
@@ -0,0 +1,29 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Callback for tracing a LittleSearchEngine. Listeners are called on the thread that did
+ * the work, after it is done, so they should return quickly.
+ * 
+ */
+public interface SearchListener {
+
+	/**
+	 * Called after a document has been scanned for keywords.
+	 * 
+	 * @param docFile Name of the document file
+	 * @param keywords Number of distinct keywords in the document
+	 * @param nanos Time taken to scan the document, in nanoseconds
+	 */
+	void documentScanned(String docFile, int keywords, long nanos);
+
+	/**
+	 * Called after a search has completed.
+	 * 
+	 * @param query Keywords or boolean query text of the search
+	 * @param results Names of the documents found, in order
+	 * @param nanos Time taken by the search, in nanoseconds
+	 */
+	void searchCompleted(List<String> query, List<String> results, long nanos);
+}
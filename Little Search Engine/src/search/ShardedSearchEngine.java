@@ -0,0 +1,239 @@
+package search;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Search engine that splits its documents across a number of independent LittleSearchEngine
+ * shards. Each shard has its own keywords index, which is built on its own thread, and a
+ * search is run on all shards at once (scatter), after which the top results of the shards
+ * are merged (gather).
+ * 
+ * Since every document is in exactly one shard, the shards never return the same document,
+ * and the merge only has to order their results: by descending frequency, then in favor of
+ * the earlier keyword, as in top5search. Results that are still tied (same frequency, same
+ * keyword) are taken in shard order, whereas a single index orders them by when they were
+ * merged in.
+ * 
+ */
+public class ShardedSearchEngine {
+
+	/**
+	 * Shards, document i of the documents file goes to shard i % shards.length, unless it
+	 * is listed more than once, in which case it goes to the shard it went to first.
+	 */
+	LittleSearchEngine[] shards;
+
+	/**
+	 * One daemon thread per shard, for building and searching, so an engine that is not
+	 * shut down does not keep the program running.
+	 */
+	private ExecutorService pool;
+
+	/**
+	 * Creates empty shards.
+	 * 
+	 * @param shardCount Number of shards
+	 */
+	public ShardedSearchEngine(int shardCount) {
+		if (shardCount < 1)
+			throw new IllegalArgumentException("need at least one shard");
+		shards = new LittleSearchEngine[shardCount];
+		for (int i = 0; i < shardCount; i++)
+			shards[i] = new LittleSearchEngine();
+		pool = Executors.newFixedThreadPool(shardCount, new ThreadFactory() {
+			private int count;
+
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "shard-" + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Indexes all documents listed in the documents file, round robin across the shards.
+	 * All shards are built at the same time. As with LittleSearchEngine.makeIndex, a
+	 * document that is listed more than once is merged in again, into the same shard.
+	 * 
+	 * @param docsFile Name of file that has a list of all the document file names, one name per line
+	 * @param noiseWordsFile Name of file that has a list of noise words, one noise word per line
+	 * @throws FileNotFoundException If there is a problem locating any of the input files on disk
+	 */
+	public void makeIndex(String docsFile, final String noiseWordsFile)
+	throws FileNotFoundException
+	{
+		final ArrayList<ArrayList<String>> docs = new ArrayList<ArrayList<String>>();
+		for (int i = 0; i < shards.length; i++)
+			docs.add(new ArrayList<String>());
+
+		HashMap<String,Integer> shardOf = new HashMap<String,Integer>();
+		Scanner sc = new Scanner(new File(docsFile));
+		for (int i = 0; sc.hasNext(); i++)
+		{
+			String docFile = sc.next();
+			Integer shard = shardOf.get(docFile);
+			if (shard == null)
+			{
+				shard = i % shards.length;
+				shardOf.put(docFile, shard);
+			}
+			docs.get(shard).add(docFile);
+		}
+
+		ArrayList<Future<Void>> builds = new ArrayList<Future<Void>>();
+		for (int i = 0; i < shards.length; i++)
+		{
+			final LittleSearchEngine shard = shards[i];
+			final ArrayList<String> shardDocs = docs.get(i);
+			builds.add(pool.submit(new Callable<Void>() {
+				public Void call()
+				throws FileNotFoundException {
+					shard.loadNoiseWords(noiseWordsFile);
+					for (String docFile : shardDocs)
+						shard.indexDocument(docFile);
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> build : builds)
+			LittleSearchEngine.await(build);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2", with the same semantics as LittleSearchEngine.top5search.
+	 * 
+	 * @param kw1 First keyword
+	 * @param kw2 Second keyword
+	 * @return List of NAMES of documents in which either kw1 or kw2 occurs, arranged in descending
+	 *         order of frequencies, limited to 5 documents
+	 */
+	public ArrayList<String> top5search(String kw1, String kw2)
+	{
+		return topKSearch(Arrays.asList(kw1, kw2), 5);
+	}
+
+	/**
+	 * Search result for keyword patterns as in LittleSearchEngine.wildcardSearch. Each pattern
+	 * is expanded against the keyword dictionaries of all shards, so that every shard merges
+	 * the same keywords in the same order, and the results are gathered as in topKSearch.
+	 * 
+	 * @param patterns Keyword patterns, in order of preference for breaking ties
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of matching documents, in descending order of frequencies
+	 */
+	public ArrayList<String> wildcardSearch(List<String> patterns, int k)
+	{
+		ArrayList<String> keywords = new ArrayList<String>();
+		HashSet<String> listed = new HashSet<String>();
+		for (String pattern : patterns)
+		{
+			TreeSet<String> matches = new TreeSet<String>();
+			for (LittleSearchEngine shard : shards)
+				matches.addAll(shard.expandKeywords(Collections.singletonList(pattern)));
+			for (String keyword : matches)
+			{
+				if (listed.add(keyword))
+					keywords.add(keyword);
+			}
+		}
+		return topKSearch(keywords, k);
+	}
+
+	/**
+	 * Search result for "kw1 or kw2 or ... or kwn", with the same semantics as
+	 * LittleSearchEngine.topKSearch. Every shard finds its own top k documents, and these
+	 * are merged into the overall top k.
+	 * 
+	 * @param keywords Keywords, in order of preference for breaking ties
+	 * @param k Maximum number of documents in the result
+	 * @return List of NAMES of documents in which any of the keywords occurs, arranged in descending
+	 *         order of frequencies. If there are no matching documents, the list is empty.
+	 */
+	public ArrayList<String> topKSearch(final List<String> keywords, final int k)
+	{
+		ArrayList<String> results = new ArrayList<String>();
+		if (k <= 0)
+			return results;
+
+		// scatter
+		ArrayList<Future<Object[]>> searches = new ArrayList<Future<Object[]>>();
+		for (final LittleSearchEngine shard : shards)
+		{
+			searches.add(pool.submit(new Callable<Object[]>() {
+				public Object[] call() {
+					ArrayList<Integer> matched = new ArrayList<Integer>();
+					return new Object[] {shard.topKHits(keywords, k, matched), matched};
+				}
+			}));
+		}
+
+		// gather, one cursor per shard
+		PriorityQueue<ShardCursor> heap = new PriorityQueue<ShardCursor>(shards.length);
+		for (int i = 0; i < shards.length; i++)
+		{
+			Object[] hits;
+			try
+			{
+				hits = LittleSearchEngine.await(searches.get(i));
+			}
+			catch (FileNotFoundException e)
+			{
+				throw new IllegalStateException(e);
+			}
+
+			@SuppressWarnings("unchecked")
+			ShardCursor c = new ShardCursor(i, (ArrayList<Occurrence>) hits[0], (ArrayList<Integer>) hits[1]);
+			if (!c.occs.isEmpty())
+				heap.add(c);
+		}
+
+		while ((results.size() < k) && !heap.isEmpty())
+		{
+			ShardCursor c = heap.poll();
+			results.add(c.occs.get(c.pos).document);
+			c.pos++;
+			if (c.pos < c.occs.size())
+				heap.add(c);
+		}
+		return results;
+	}
+
+	/**
+	 * Stops the threads of this engine. It cannot be used after this.
+	 */
+	public void shutdown()
+	{
+		pool.shutdown();
+	}
+
+	/**
+	 * Position in the top results of one shard during the gather. Cursors are ordered by
+	 * descending frequency, then by keyword position, then by shard.
+	 */
+	private static class ShardCursor implements Comparable<ShardCursor> {
+		int shard;
+		ArrayList<Occurrence> occs;
+		ArrayList<Integer> keywords;
+		int pos;
+
+		ShardCursor(int shard, ArrayList<Occurrence> occs, ArrayList<Integer> keywords) {
+			this.shard = shard;
+			this.occs = occs;
+			this.keywords = keywords;
+		}
+
+		public int compareTo(ShardCursor other) {
+			int f = occs.get(pos).frequency;
+			int g = other.occs.get(other.pos).frequency;
+			if (f != g)
+				return (f > g) ? -1 : 1;
+			int kw = keywords.get(pos) - other.keywords.get(other.pos);
+			if (kw != 0)
+				return kw;
+			return shard - other.shard;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package search;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sorted dictionary of the keywords in an index, kept next to the keywords hash table so
+ * that keyword patterns can be expanded without looking at every key. A pattern is a
+ * keyword in which '*' stands for any sequence of letters (including none) and '?' for any
+ * single letter, for example "won*" or "w?nder*".
+ * 
+ * All keywords that start with the literal prefix of a pattern (the letters before its
+ * first wildcard) are next to each other in the dictionary, so expanding a pattern only
+ * visits that range. For patterns that are a prefix followed by a single '*', every
+ * visited keyword is a match, and the cost is proportional to the number of matches.
+ * 
+ * Keywords can be added while patterns are being expanded in other threads; an expansion
+ * sees any keyword that was added before it started, and may or may not see keywords that
+ * are added while it runs.
+ * 
+ */
+class TermDictionary {
+
+	/**
+	 * Keywords, in alphabetical order.
+	 */
+	private ConcurrentSkipListSet<String> terms;
+
+	/**
+	 * Creates an empty dictionary.
+	 */
+	TermDictionary() {
+		terms = new ConcurrentSkipListSet<String>();
+	}
+
+	/**
+	 * Adds a keyword.
+	 * 
+	 * @param keyword Keyword
+	 * @return True if the keyword was not already in the dictionary
+	 */
+	boolean add(String keyword)
+	{
+		return terms.add(keyword);
+	}
+
+	/**
+	 * Adds keywords.
+	 * 
+	 * @param keywords Keywords
+	 */
+	void addAll(Collection<String> keywords)
+	{
+		terms.addAll(keywords);
+	}
+
+	/**
+	 * Removes a keyword.
+	 * 
+	 * @param keyword Keyword
+	 */
+	void remove(String keyword)
+	{
+		terms.remove(keyword);
+	}
+
+	/**
+	 * Tells whether a keyword is in the dictionary.
+	 * 
+	 * @param keyword Keyword
+	 * @return True if the keyword is in the dictionary
+	 */
+	boolean contains(String keyword)
+	{
+		return terms.contains(keyword);
+	}
+
+	/**
+	 * Returns the number of keywords in the dictionary.
+	 * 
+	 * @return Number of keywords
+	 */
+	int size()
+	{
+		return terms.size();
+	}
+
+	/**
+	 * Adds all keywords that match a pattern to a list, in alphabetical order. A pattern
+	 * without wildcards matches only itself, if it is in the dictionary.
+	 * 
+	 * @param pattern Keyword pattern, in lower case
+	 * @param matches List to which the matching keywords are added
+	 */
+	void expand(String pattern, List<String> matches)
+	{
+		int wild = firstWildcard(pattern);
+		if (wild < 0)
+		{
+			if (terms.contains(pattern))
+				matches.add(pattern);
+			return;
+		}
+
+		String prefix = pattern.substring(0, wild);
+		SortedSet<String> range = (prefix.length() == 0)
+			? terms
+			: terms.subSet(prefix, prefix + Character.MAX_VALUE);
+
+		if (isPrefixPattern(pattern, wild))
+		{
+			matches.addAll(range);
+			return;
+		}
+		for (String term : range)
+		{
+			if (matches(pattern, wild, term, wild))
+				matches.add(term);
+		}
+	}
+
+	/**
+	 * Returns the position of the first '*' or '?' in a pattern, -1 if there is none.
+	 */
+	static int firstWildcard(String pattern)
+	{
+		for (int i = 0; i < pattern.length(); i++)
+		{
+			char ch = pattern.charAt(i);
+			if ((ch == '*') || (ch == '?'))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Tells if a pattern is its literal prefix followed by a single '*', so that every
+	 * keyword with the prefix matches it.
+	 */
+	static boolean isPrefixPattern(String pattern, int wild)
+	{
+		return (wild == pattern.length() - 1) && (pattern.charAt(wild) == '*');
+	}
+
+	/**
+	 * Matches the rest of a pattern, from position p, against the rest of a keyword, from
+	 * position t. On a mismatch, the last '*' seen is made to absorb one more letter, so
+	 * no letter of the keyword is looked at more than once per '*'.
+	 */
+	static boolean matches(String pattern, int p, String term, int t)
+	{
+		int star = -1;
+		int resume = 0;
+		while (t < term.length())
+		{
+			if (p < pattern.length())
+			{
+				char ch = pattern.charAt(p);
+				if (ch == '*')
+				{
+					star = p++;
+					resume = t;
+					continue;
+				}
+				if ((ch == '?') || (ch == term.charAt(t)))
+				{
+					p++;
+					t++;
+					continue;
+				}
+			}
+			if (star < 0)
+				return false;
+			p = star + 1;
+			t = ++resume;
+		}
+		while ((p < pattern.length()) && (pattern.charAt(p) == '*'))
+			p++;
+		return p == pattern.length();
+	}
+}
@@ -0,0 +1,88 @@
+package search;
+
+import java.util.*;
+
+/**
+ * Checks of LittleSearchEngine searches on the documents in docs.txt. Run it in the
+ * directory of docs.txt and noisewords.txt. Every failed check is printed, and the exit
+ * status is 1 if any check failed.
+ *
+ * Usage: java search.SearchTest
+ *
+ */
+public class SearchTest {
+
+	/**
+	 * Number of failed checks.
+	 */
+	static int failures;
+
+	/**
+	 * @param args Not used
+	 */
+	public static void main(String[] args)
+	throws Exception {
+		LittleSearchEngine lse = new LittleSearchEngine();
+		lse.makeIndex("docs.txt", "noisewords.txt");
+
+		bm25Search(lse);
+
+		LittleSearchEngine positional = new LittleSearchEngine();
+		positional.enablePositions();
+		positional.makeIndex("docs.txt", "noisewords.txt");
+		nearSearch(positional);
+
+		System.out.println(failures + " failed checks");
+		if (failures > 0)
+			System.exit(1);
+	}
+
+	/**
+	 * bm25Search looks up words the way topKSearch does: case and trailing punctuation do
+	 * not matter, and noise words are skipped.
+	 */
+	static void bm25Search(LittleSearchEngine lse)
+	{
+		ArrayList<String> alice = lse.bm25Search(Arrays.asList("alice"), 10);
+		check("bm25Search(alice) finds AliceCh1.txt", alice.contains("AliceCh1.txt"));
+		check("bm25Search(Alice) is bm25Search(alice)",
+			alice.equals(lse.bm25Search(Arrays.asList("Alice"), 10)));
+		check("bm25Search(ALICE!) is bm25Search(alice)",
+			alice.equals(lse.bm25Search(Arrays.asList("ALICE!"), 10)));
+		check("noise words and non-words are skipped",
+			alice.equals(lse.bm25Search(Arrays.asList("The", "Alice", "a1b"), 10)));
+		check("bm25Search(The) is empty", lse.bm25Search(Arrays.asList("The"), 10).isEmpty());
+		check("bm25Search(Alice, RABBIT!) is bm25Search(alice, rabbit)",
+			lse.bm25Search(Arrays.asList("alice", "rabbit"), 10).equals(
+				lse.bm25Search(Arrays.asList("Alice", "RABBIT!"), 10)));
+	}
+
+	/**
+	 * nearSearch looks up words as bm25Search does, and finds the documents phraseSearch
+	 * finds for a phrase of the same words.
+	 */
+	static void nearSearch(LittleSearchEngine lse)
+	{
+		ArrayList<String> phrase = lse.phraseSearch("White Rabbit", 10);
+		check("phraseSearch(White Rabbit) finds AliceCh1.txt", phrase.contains("AliceCh1.txt"));
+		ArrayList<String> near = lse.nearSearch(Arrays.asList("White", "Rabbit"), 2, 10);
+		check("nearSearch(White, Rabbit) finds what phraseSearch finds", near.containsAll(phrase));
+		check("nearSearch(WHITE!, rabbit) is nearSearch(White, Rabbit)",
+			near.equals(lse.nearSearch(Arrays.asList("WHITE!", "rabbit"), 2, 10)));
+		check("noise words are skipped",
+			near.equals(lse.nearSearch(Arrays.asList("the", "White", "Rabbit"), 2, 10)));
+		check("nearSearch(The) is empty", lse.nearSearch(Arrays.asList("The"), 2, 10).isEmpty());
+	}
+
+	/**
+	 * Reports a check that failed.
+	 */
+	static void check(String name, boolean passed)
+	{
+		if (!passed)
+		{
+			failures++;
+			System.out.println("FAILED: " + name);
+		}
+	}
+}